@@ -0,0 +1,64 @@
+package dev.nicotopia.ncsgm.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.nicotopia.ncsgm.model.Configuration;
+
+/**
+ * Measures reading a configuration whose watched path contains a wildcard,
+ * which resolves against a folder with the given number of profiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConfigurationBenchmark {
+    @Param({ "1", "100", "1000" })
+    public int profiles;
+
+    private Path folder;
+    private JSONObject json;
+
+    @Setup(Level.Trial)
+    public void createProfiles() throws IOException {
+        this.folder = SaveTree.createTempFolder();
+        for (int i = 0; i < this.profiles; ++i) {
+            Files.createDirectories(this.folder.resolve("profiles").resolve("profile_" + i).resolve("Savegames"));
+        }
+        Files.createDirectories(this.folder.resolve("backups"));
+        this.json = new JSONObject();
+        this.json.put("name", "Benchmark");
+        this.json.put("pathToWatch", this.folder.resolve("profiles") + "/*/Savegames");
+        this.json.put("backupFolder", this.folder.resolve("backups").toString());
+    }
+
+    @Benchmark
+    public Configuration parse() {
+        return new Configuration(this.json);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFolder() throws IOException {
+        SaveTree.delete(this.folder);
+    }
+}
@@ -0,0 +1,88 @@
+package dev.nicotopia.ncsgm.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.nicotopia.ncsgm.model.BackupFormat;
+import dev.nicotopia.ncsgm.model.CompressionCodec;
+import dev.nicotopia.ncsgm.model.Configuration;
+import dev.nicotopia.ncsgm.model.FolderBackupManager;
+
+/**
+ * Measures {@link FolderBackupManager#createBackup()} from queuing the job to
+ * its completion. Every invocation starts with an empty backup folder, so each
+ * backup is a full one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class CreateBackupBenchmark {
+    @Param({ "FEW_LARGE", "MANY_SMALL", "COMPRESSED" })
+    public SaveTree.Shape shape;
+
+    @Param({ "64" })
+    public int sizeMiB;
+
+    @Param({ "ZIP", "DEDUP" })
+    public BackupFormat format;
+
+    @Param({ "DEFLATE", "AUTO" })
+    public CompressionCodec codec;
+
+    @Param({ "0" })
+    public int compressionThreads;
+
+    private Path folder;
+    private Configuration config;
+    private FolderBackupManager manager;
+
+    @Setup(Level.Trial)
+    public void generateSaveTree() throws IOException {
+        this.folder = SaveTree.createTempFolder();
+        SaveTree.generate(this.folder.resolve("Savegame"), this.shape, this.sizeMiB * 1024L * 1024L);
+        this.config = new Configuration("Benchmark", this.folder.resolve("Savegame"),
+                Files.createDirectories(this.folder.resolve("backups")), Configuration.Debounce.DEFAULT, this.format,
+                new Configuration.Compression(this.codec, -1), this.compressionThreads);
+    }
+
+    @Setup(Level.Invocation)
+    public void createManager() {
+        this.manager = new FolderBackupManager(this.config, Runnable::run);
+    }
+
+    @Benchmark
+    public Integer createBackup() throws InterruptedException, ExecutionException {
+        return this.manager.createBackup().getFuture().get();
+    }
+
+    @TearDown(Level.Invocation)
+    public void clearBackupFolder() throws IOException {
+        this.manager.shutdown();
+        SaveTree.deleteContents(this.config.backupFolder());
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFolder() throws IOException {
+        SaveTree.delete(this.folder);
+    }
+}
@@ -0,0 +1,92 @@
+package dev.nicotopia.ncsgm.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.nicotopia.ncsgm.model.BackupFormat;
+import dev.nicotopia.ncsgm.model.CompressionCodec;
+import dev.nicotopia.ncsgm.model.Configuration;
+import dev.nicotopia.ncsgm.model.FolderBackupManager;
+
+/**
+ * Measures {@link FolderBackupManager#restoreBackup(int, Runnable)} of a
+ * backup of the generated tree. FULL restores into an emptied save folder, so
+ * every file is extracted, UNCHANGED restores over identical contents, so every
+ * file is kept.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class RestoreBackupBenchmark {
+    public enum Live {
+        FULL, UNCHANGED
+    }
+
+    @Param({ "FEW_LARGE", "MANY_SMALL", "COMPRESSED" })
+    public SaveTree.Shape shape;
+
+    @Param({ "64" })
+    public int sizeMiB;
+
+    @Param({ "ZIP", "DEDUP" })
+    public BackupFormat format;
+
+    @Param({ "FULL", "UNCHANGED" })
+    public Live live;
+
+    @Param({ "0" })
+    public int compressionThreads;
+
+    private Path folder;
+    private Configuration config;
+    private FolderBackupManager manager;
+
+    @Setup(Level.Trial)
+    public void createBackup() throws IOException, InterruptedException, ExecutionException {
+        this.folder = SaveTree.createTempFolder();
+        SaveTree.generate(this.folder.resolve("Savegame"), this.shape, this.sizeMiB * 1024L * 1024L);
+        this.config = new Configuration("Benchmark", this.folder.resolve("Savegame"),
+                Files.createDirectories(this.folder.resolve("backups")), Configuration.Debounce.DEFAULT, this.format,
+                new Configuration.Compression(CompressionCodec.DEFLATE, -1), this.compressionThreads);
+        this.manager = new FolderBackupManager(this.config, Runnable::run);
+        this.manager.createBackup().getFuture().get();
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareLiveFolder() throws IOException {
+        if (this.live == Live.FULL) {
+            SaveTree.deleteContents(this.config.pathToWatch());
+        }
+    }
+
+    @Benchmark
+    public Void restoreBackup() throws InterruptedException, ExecutionException {
+        return this.manager.restoreBackup(0, null).getFuture().get();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFolder() throws IOException {
+        this.manager.shutdown();
+        SaveTree.delete(this.folder);
+    }
+}
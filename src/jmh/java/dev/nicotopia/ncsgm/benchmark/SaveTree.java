@@ -0,0 +1,135 @@
+package dev.nicotopia.ncsgm.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Generates save folders of a given shape from a fixed seed, so that all runs
+ * of a benchmark work on the same data. Every tree contains a screenshot next
+ * to its data files, like the saves of the supported games. Public only because
+ * JMH sets the shape parameters from generated code in another package.
+ */
+public final class SaveTree {
+    public enum Shape {
+        /** Four large, well compressible files. */
+        FEW_LARGE,
+        /** Files of 4 to 64 KiB spread over 16 folders, well compressible. */
+        MANY_SMALL,
+        /** Eight large files of random data, like already compressed saves. */
+        COMPRESSED
+    }
+
+    private static final long SEED = 0x5EED;
+    private static final byte[][] WORDS = new byte[256][];
+
+    static {
+        var random = new Random(SEED);
+        for (int i = 0; i < WORDS.length; ++i) {
+            WORDS[i] = new byte[4 + random.nextInt(21)];
+            for (int j = 0; j < WORDS[i].length; ++j) {
+                WORDS[i][j] = (byte) (' ' + random.nextInt(95));
+            }
+        }
+    }
+
+    private SaveTree() {
+    }
+
+    /**
+     * Fills root with about totalSize bytes of data files of the given shape plus
+     * a 1920x1080 screenshot.
+     */
+    static void generate(Path root, Shape shape, long totalSize) throws IOException {
+        var random = new Random(SEED);
+        Files.createDirectories(root);
+        writeScreenshot(root.resolve("screenshot.png"), random);
+        switch (shape) {
+        case FEW_LARGE -> {
+            for (int i = 0; i < 4; ++i) {
+                writeFile(root.resolve("data_" + i + ".bin"), totalSize / 4, random, true);
+            }
+        }
+        case MANY_SMALL -> {
+            long written = 0;
+            for (int i = 0; written < totalSize; ++i) {
+                var folder = Files.createDirectories(root.resolve("folder_" + i % 16));
+                long size = Math.min(totalSize - written, (4 + random.nextInt(61)) * 1024);
+                writeFile(folder.resolve("data_" + i + ".bin"), size, random, true);
+                written += size;
+            }
+        }
+        case COMPRESSED -> {
+            for (int i = 0; i < 8; ++i) {
+                writeFile(root.resolve("data_" + i + ".bin"), totalSize / 8, random, false);
+            }
+        }
+        }
+    }
+
+    private static void writeFile(Path path, long size, Random random, boolean compressible) throws IOException {
+        var buffer = new byte[64 * 1024];
+        try (var os = Files.newOutputStream(path)) {
+            for (long remaining = size; 0 < remaining; remaining -= buffer.length) {
+                fill(buffer, random, compressible);
+                os.write(buffer, 0, (int) Math.min(buffer.length, remaining));
+            }
+        }
+    }
+
+    /**
+     * Fills the buffer either with random bytes or with words of a small random
+     * dictionary, which deflate shrinks to about two thirds.
+     */
+    private static void fill(byte[] buffer, Random random, boolean compressible) {
+        if (!compressible) {
+            random.nextBytes(buffer);
+            return;
+        }
+        for (int pos = 0; pos < buffer.length;) {
+            var word = WORDS[random.nextInt(WORDS.length)];
+            int length = Math.min(word.length, buffer.length - pos);
+            System.arraycopy(word, 0, buffer, pos, length);
+            pos += length;
+        }
+    }
+
+    private static void writeScreenshot(Path path, Random random) throws IOException {
+        var image = new BufferedImage(1920, 1080, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < image.getHeight(); ++y) {
+            for (int x = 0; x < image.getWidth(); ++x) {
+                int noise = random.nextInt(32);
+                image.setRGB(x, y, (x * 255 / image.getWidth() + noise) % 256 << 16
+                        | (y * 255 / image.getHeight() + noise) % 256 << 8 | noise * 4);
+            }
+        }
+        ImageIO.write(image, "png", path.toFile());
+    }
+
+    static Path createTempFolder() throws IOException {
+        return Files.createTempDirectory("ncsgm-benchmark");
+    }
+
+    static void delete(Path path) throws IOException {
+        if (Files.exists(path)) {
+            try (var paths = Files.walk(path)) {
+                for (var p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.delete(p);
+                }
+            }
+        }
+    }
+
+    static void deleteContents(Path folder) throws IOException {
+        try (var children = Files.list(folder)) {
+            for (var child : (Iterable<Path>) children::iterator) {
+                delete(child);
+            }
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package dev.nicotopia.ncsgm.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.nicotopia.ncsgm.model.Backup;
+import dev.nicotopia.ncsgm.model.BackupFormat;
+import dev.nicotopia.ncsgm.model.Configuration;
+import dev.nicotopia.ncsgm.model.FolderBackupManager;
+
+/**
+ * Measures how long it takes from constructing a {@link FolderBackupManager}
+ * until the scan of its backup folder has completed, with and without the
+ * metadata cache of a previous scan.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ScanBenchmark {
+    private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+
+    @Param({ "200" })
+    public int backups;
+
+    @Param({ "ZIP", "DEDUP" })
+    public BackupFormat format;
+
+    @Param({ "true", "false" })
+    public boolean cached;
+
+    private Path folder;
+    private Configuration config;
+    private ExecutorService eventQueue;
+
+    /**
+     * Writes the backups directly with distinct timestamps, the manager only
+     * creates one backup per second.
+     */
+    @Setup(Level.Trial)
+    public void createBackups() throws Exception {
+        this.folder = SaveTree.createTempFolder();
+        var saveTree = this.folder.resolve("Savegame");
+        SaveTree.generate(saveTree, SaveTree.Shape.MANY_SMALL, 256 * 1024);
+        this.config = new Configuration("Benchmark", saveTree, Files.createDirectories(this.folder.resolve("backups")),
+                Configuration.Debounce.DEFAULT, this.format, Configuration.Compression.DEFAULT, 1);
+        var time = LocalDateTime.of(2020, 1, 1, 0, 0);
+        for (int i = 0; i < this.backups; ++i) {
+            var timestamp = TIMESTAMP_FORMATTER.format(time.plusMinutes(i));
+            var backup = Backup.createNew(this.config.backupFolder(), "Savegame_" + timestamp, timestamp, this.format)
+                    .orElseThrow();
+            try (var writer = backup.openWriter(this.config.compression()); var files = Files.walk(saveTree)) {
+                for (var path : (Iterable<Path>) files::iterator) {
+                    var name = saveTree.getParent().relativize(path).toString().replace('\\', '/');
+                    if (Files.isDirectory(path)) {
+                        writer.putDirectory(name + "/", path.toFile().lastModified());
+                    } else {
+                        writer.putFile(name, path.toFile(), path.toFile().lastModified(), n -> {
+                        });
+                    }
+                }
+            }
+        }
+        this.eventQueue = Executors.newSingleThreadExecutor();
+        this.scan();
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareMetadataCache() throws IOException {
+        if (!this.cached) {
+            SaveTree.delete(this.config.backupFolder().resolve(".metadata.json"));
+            SaveTree.delete(this.config.backupFolder().resolve(".thumbnails"));
+        }
+    }
+
+    @Benchmark
+    public int scan() throws Exception {
+        var manager = new FolderBackupManager(this.config, this.eventQueue);
+        try {
+            var complete = new CountDownLatch(1);
+            // All list changes happen on the event queue, so no batch can be missed.
+            this.eventQueue.submit(() -> {
+                manager.addListDataListener(new ListDataListener() {
+                    @Override
+                    public void intervalAdded(ListDataEvent e) {
+                        if (manager.getSize() == ScanBenchmark.this.backups) {
+                            complete.countDown();
+                        }
+                    }
+
+                    @Override
+                    public void intervalRemoved(ListDataEvent e) {
+                    }
+
+                    @Override
+                    public void contentsChanged(ListDataEvent e) {
+                    }
+                });
+                if (manager.getSize() == this.backups) {
+                    complete.countDown();
+                }
+            }).get();
+            if (!complete.await(1, TimeUnit.MINUTES)) {
+                throw new TimeoutException("Only " + manager.getSize() + " backups found.");
+            }
+            // Also wait for the scan job to save the metadata cache.
+            var job = manager.getCurrentJob();
+            if (job != null) {
+                job.getFuture().get();
+            }
+            return manager.getSize();
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFolder() throws IOException {
+        this.eventQueue.shutdown();
+        SaveTree.delete(this.folder);
+    }
+}
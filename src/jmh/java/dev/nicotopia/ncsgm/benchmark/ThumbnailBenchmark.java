@@ -0,0 +1,77 @@
+package dev.nicotopia.ncsgm.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import dev.nicotopia.ncsgm.model.Backup;
+import dev.nicotopia.ncsgm.model.BackupFormat;
+import dev.nicotopia.ncsgm.model.Configuration;
+import dev.nicotopia.ncsgm.model.FolderBackupManager;
+
+/**
+ * Measures decoding the screenshot of a backup into a thumbnail of the size
+ * shown by the detail panel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+public class ThumbnailBenchmark {
+    @Param({ "FEW_LARGE", "MANY_SMALL" })
+    public SaveTree.Shape shape;
+
+    @Param({ "16" })
+    public int sizeMiB;
+
+    @Param({ "ZIP", "DEDUP" })
+    public BackupFormat format;
+
+    private Path folder;
+    private Backup backup;
+
+    @Setup(Level.Trial)
+    public void createBackup() throws IOException, InterruptedException, ExecutionException {
+        this.folder = SaveTree.createTempFolder();
+        SaveTree.generate(this.folder.resolve("Savegame"), this.shape, this.sizeMiB * 1024L * 1024L);
+        var config = new Configuration("Benchmark", this.folder.resolve("Savegame"),
+                Files.createDirectories(this.folder.resolve("backups")), Configuration.Debounce.DEFAULT, this.format,
+                Configuration.Compression.DEFAULT, 0);
+        var manager = new FolderBackupManager(config, Runnable::run);
+        try {
+            this.backup = manager.getElementAt(manager.createBackup().getFuture().get());
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    @Benchmark
+    public Optional<BufferedImage> readThumbnail() throws IOException {
+        return this.backup.readThumbnail(640, 360);
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteFolder() throws IOException {
+        SaveTree.delete(this.folder);
+    }
+}
@@ -11,6 +11,9 @@ import dev.nicotopia.ncsgm.view.ConfigFrame;
 
 public class App {
     public static void main(String[] args) {
+        if (args.length != 0) {
+            System.exit(Cli.run(args));
+        }
         System.out.println(App.class.getPackage().getImplementationVersion());
         SwingUtilities.invokeLater(App::new);
     }
@@ -0,0 +1,394 @@
+package dev.nicotopia.ncsgm;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import dev.nicotopia.ncsgm.model.BackupJob;
+import dev.nicotopia.ncsgm.model.BackupService;
+import dev.nicotopia.ncsgm.model.Configuration;
+import dev.nicotopia.ncsgm.model.FolderBackupManager;
+import dev.nicotopia.ncsgm.model.Metrics;
+
+/**
+ * Headless entry point, used when the application is started with arguments.
+ * Neither Swing nor FlatLaf are initialized, so it also runs as a background
+ * service on machines without a display.
+ */
+public class Cli {
+    private static final String USAGE = """
+            Usage: ncsgm <command> [options]
+
+            Commands:
+              daemon               Watch the folders and back them up after every change
+              create               Create a backup now
+              list                 List the backups, oldest first
+              restore <backup>     Restore the backup with the given name, or list index prefixed by #, e.g. #3
+              diff <backup> [<to>] List the files changed since the backup, or between two backups
+              prune [<count>]      Delete the oldest automatic backups until count are left, or those the
+                                   retention of the configuration does not keep
+              presets              List the available presets
+
+            Options:
+              --preset <name>          Use the given preset, daemon accepts several
+              --profile <name>         Use the given profile of the preset, daemon watches all by default
+              --watch <path>           Folder to back up, overrides that of the preset
+              --backup-folder <path>   Folder to store the backups in, overrides that of the preset
+              --max-backups <count>    Number of automatic backups to keep, overrides the retention, 0 keeps all
+              --workers <count>        Number of backups daemon creates at the same time, 2 by default
+            """;
+    // How long a command waits for the jobs it queued, e.g. pruning after a new backup, before exiting.
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 60;
+
+    private static class UsageException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        UsageException(String message) {
+            super(message);
+        }
+    }
+
+    private final ExecutorService eventQueue = Executors.newSingleThreadExecutor(r -> {
+        var thread = new Thread(r, "Event queue");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, Configuration> presets;
+    private final List<String> arguments = new ArrayList<>();
+    private final List<String> presetNames = new ArrayList<>();
+    private String profileName;
+    private String command;
+    private Path pathToWatch;
+    private Path backupFolder;
+    private int maxBackups = -1;
+    private int workers = 2;
+
+    /**
+     * Runs the command given by the arguments and returns the exit code.
+     */
+    public static int run(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        try {
+            return new Cli(args).run();
+        } catch (UsageException ex) {
+            System.err.println(ex.getMessage());
+            System.err.print(USAGE);
+            return 2;
+        } catch (ExecutionException ex) {
+            var cause = ex.getCause();
+            System.err.println("Error: " + (cause.getMessage() != null ? cause.getMessage() : cause));
+            return 1;
+        } catch (IOException ex) {
+            System.err.println("Error: " + ex.getMessage());
+            return 1;
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            return 1;
+        }
+    }
+
+    private Cli(String[] args) throws IOException, UsageException {
+        this.presets = Configuration.loadFromJsonResource("/presets.json");
+        try {
+            for (int i = 0; i < args.length; ++i) {
+                switch (args[i]) {
+                case "--preset" -> this.presetNames.add(value(args, ++i));
+                case "--profile" -> this.profileName = value(args, ++i);
+                case "--watch" -> this.pathToWatch = Path.of(value(args, ++i));
+                case "--backup-folder" -> this.backupFolder = Path.of(value(args, ++i));
+                case "--max-backups" -> this.maxBackups = Integer.parseInt(value(args, ++i));
+                case "--workers" -> this.workers = Integer.parseInt(value(args, ++i));
+                case "-h", "--help" -> this.command = "help";
+                default -> {
+                    if (args[i].startsWith("--")) {
+                        throw new UsageException("Unknown option " + args[i]);
+                    } else if (this.command == null) {
+                        this.command = args[i];
+                    } else {
+                        this.arguments.add(args[i]);
+                    }
+                }
+                }
+            }
+        } catch (InvalidPathException | NumberFormatException ex) {
+            throw new UsageException(ex.getMessage());
+        }
+        if (this.command == null) {
+            throw new UsageException("No command given.");
+        } else if (this.workers < 1) {
+            throw new UsageException("--workers takes a positive count.");
+        }
+    }
+
+    private static String value(String[] args, int i) throws UsageException {
+        if (args.length <= i) {
+            throw new UsageException("Missing value of " + args[i - 1]);
+        }
+        return args[i];
+    }
+
+    private int run() throws Exception {
+        if (this.command.equals("help")) {
+            System.out.print(USAGE);
+            return 0;
+        } else if (this.command.equals("presets")) {
+            for (var preset : this.presets.values()) {
+                System.out.println(preset.name());
+                if (preset.profiles() != null && preset.getProfileConfigurations().isEmpty()) {
+                    System.out.printf("  %s (no profiles found)\n", preset.profiles().pathToWatch().getPattern());
+                }
+                for (var profile : preset.getProfileConfigurations()) {
+                    if (profile.profiles() != null) {
+                        System.out.printf("  %s: %s\n", profile.getProfileName(), profile.pathToWatch());
+                    } else {
+                        System.out.printf("  %s\n", profile.pathToWatch());
+                    }
+                }
+            }
+            return 0;
+        } else if (!List.of("daemon", "create", "list", "restore", "diff", "prune").contains(this.command)) {
+            throw new UsageException("Unknown command " + this.command);
+        }
+        var configs = this.getConfigurations();
+        if (this.command.equals("daemon")) {
+            this.daemon(configs);
+            return 0;
+        } else if (configs.size() != 1) {
+            throw new UsageException("The " + this.command + " command takes exactly one configuration.");
+        }
+        var manager = new FolderBackupManager(configs.get(0), this.eventQueue);
+        boolean terminated;
+        try {
+            manager.getScanJob().getFuture().get();
+            switch (this.command) {
+            case "create" -> this.create(manager);
+            case "list" -> this.list(manager);
+            case "restore" -> this.restore(manager);
+            case "diff" -> this.diff(manager);
+            case "prune" -> this.prune(manager);
+            }
+        } finally {
+            manager.shutdown();
+            terminated = manager.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        }
+        if (!terminated) {
+            System.err.printf("Error: Queued jobs did not finish within %d seconds.\n", SHUTDOWN_TIMEOUT_SECONDS);
+            return 1;
+        }
+        return 0;
+    }
+
+    private List<Configuration> getConfigurations() throws UsageException {
+        var configs = new ArrayList<Configuration>();
+        for (var name : this.presetNames) {
+            var preset = this.presets.get(name);
+            if (preset == null) {
+                throw new UsageException("Unknown preset " + name);
+            }
+            configs.add(this.selectProfile(preset));
+        }
+        if (this.pathToWatch != null || this.backupFolder != null) {
+            if (configs.size() == 1) {
+                var preset = configs.remove(0);
+                configs.add(preset.withPaths(this.pathToWatch != null ? this.pathToWatch : preset.pathToWatch(),
+                        this.backupFolder != null ? this.backupFolder : preset.backupFolder()));
+            } else if (configs.isEmpty() && this.pathToWatch != null && this.backupFolder != null) {
+                configs.add(new Configuration(this.pathToWatch.getFileName().toString(), this.pathToWatch,
+                        this.backupFolder));
+            } else {
+                throw new UsageException("--watch and --backup-folder either override a single preset or are both "
+                        + "given without one.");
+            }
+        }
+        if (configs.isEmpty()) {
+            throw new UsageException("No configuration given.");
+        } else if (0 <= this.maxBackups) {
+            configs.replaceAll(c -> c.withRetention(c.retention().withMaxCount(this.maxBackups)));
+        }
+        for (var config : configs) {
+            if (config.profiles() != null) {
+                // Created per profile by the service.
+                continue;
+            }
+            File backupFolder = config.backupFolder().toFile();
+            if (!backupFolder.exists() && !backupFolder.mkdirs()) {
+                throw new UsageException("Creation of backup folder failed: " + backupFolder);
+            }
+        }
+        return configs;
+    }
+
+    /**
+     * Returns the selected profile of the given preset, if any. Only the
+     * daemon handles all of them.
+     */
+    private Configuration selectProfile(Configuration preset) throws UsageException {
+        if (preset.profiles() == null) {
+            if (this.profileName != null) {
+                throw new UsageException("The preset " + preset.name() + " has no profiles.");
+            }
+            return preset;
+        }
+        var profiles = preset.getProfileConfigurations();
+        if (this.profileName != null) {
+            return profiles.stream().filter(p -> p.getProfileName().equals(this.profileName)).findAny()
+                    .orElseThrow(() -> new UsageException("Unknown profile " + this.profileName));
+        } else if (this.command.equals("daemon")) {
+            return preset;
+        } else if (profiles.size() != 1) {
+            throw new UsageException(String.format("The preset %s has %d profiles, select one with --profile.",
+                    preset.name(), profiles.size()));
+        }
+        return profiles.get(0);
+    }
+
+    /**
+     * Runs on the event queue and waits for the result.
+     */
+    private <T> T onEventQueue(Callable<T> callable) throws InterruptedException, ExecutionException {
+        return this.eventQueue.submit(callable).get();
+    }
+
+    private void daemon(List<Configuration> configs) throws InterruptedException {
+        var service = new BackupService(this.workers, this.eventQueue);
+        configs.forEach(service::add);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            service.shutdown();
+            try {
+                service.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                ex.printStackTrace();
+            }
+            System.out.print(Metrics.report());
+        }, "Shutdown"));
+        // Runs until the process is terminated.
+        new CountDownLatch(1).await();
+    }
+
+    private void create(FolderBackupManager manager) throws Exception {
+        int idx = manager.createBackup().getFuture().get();
+        if (idx == -1) {
+            throw new IOException("A backup with the same name exists already.");
+        }
+        System.out.println(this.onEventQueue(() -> manager.getElementAt(idx).getName()));
+    }
+
+    private void list(FolderBackupManager manager) throws Exception {
+        this.onEventQueue(() -> {
+            for (int i = 0; i < manager.getSize(); ++i) {
+                var backup = manager.getElementAt(i);
+                System.out.printf("%5s  %-48s %10s\n", "#" + i, backup.getName(),
+                        formatSize(backup.getFileByteWidth()));
+            }
+            return null;
+        });
+    }
+
+    private void restore(FolderBackupManager manager) throws Exception {
+        if (this.arguments.size() != 1) {
+            throw new UsageException("restore takes the name or #list index of a backup.");
+        }
+        var job = this.onEventQueue(() -> manager.restoreBackup(findBackup(manager, this.arguments.get(0)), null));
+        job.getFuture().get();
+    }
+
+    private void diff(FolderBackupManager manager) throws Exception {
+        if (this.arguments.isEmpty() || 2 < this.arguments.size()) {
+            throw new UsageException("diff takes the names or #list indices of one or two backups.");
+        }
+        var job = this.onEventQueue(() -> {
+            int from = findBackup(manager, this.arguments.get(0));
+            return this.arguments.size() == 1 ? manager.compareWithLive(from)
+                    : manager.compareBackups(from, findBackup(manager, this.arguments.get(1)));
+        });
+        var diff = job.getFuture().get();
+        diff.added().forEach(name -> System.out.println("+ " + name));
+        diff.removed().forEach(name -> System.out.println("- " + name));
+        diff.changed().forEach(name -> System.out.println("* " + name));
+        System.out.printf("%d added, %d removed, %d changed\n", diff.added().size(), diff.removed().size(),
+                diff.changed().size());
+    }
+
+    /**
+     * Returns the list index of the backup given by its name or by its list
+     * index prefixed by #. Fails if no or more than one backup matches, e.g.
+     * if a backup is named like the list index of another one. Must be called
+     * on the event queue.
+     */
+    private static int findBackup(FolderBackupManager manager, String argument) throws IOException {
+        var matches = new TreeSet<Integer>();
+        if (argument.matches("#\\d+")) {
+            try {
+                int idx = Integer.parseInt(argument.substring(1));
+                if (idx < manager.getSize()) {
+                    matches.add(idx);
+                }
+            } catch (NumberFormatException ex) {
+            }
+        }
+        for (int i = 0; i < manager.getSize(); ++i) {
+            if (manager.getElementAt(i).getName().equals(argument)) {
+                matches.add(i);
+            }
+        }
+        if (matches.isEmpty()) {
+            throw new IOException("No backup " + argument);
+        } else if (1 < matches.size()) {
+            throw new IOException(String.format("%s matches %d backups: %s", argument, matches.size(),
+                    matches.stream().map(i -> "#" + i).collect(Collectors.joining(", "))));
+        }
+        return matches.first();
+    }
+
+    private void prune(FolderBackupManager manager) throws Exception {
+        if (this.arguments.isEmpty()) {
+            int deleted = manager.applyRetention().getFuture().get();
+            System.out.printf("%d backups deleted\n", deleted);
+            return;
+        }
+        int keep;
+        try {
+            keep = this.arguments.size() == 1 ? Integer.parseInt(this.arguments.get(0)) : -1;
+        } catch (NumberFormatException ex) {
+            keep = -1;
+        }
+        if (keep < 0) {
+            throw new UsageException("prune takes the number of automatic backups to keep.");
+        }
+        int count = keep;
+        var jobs = this.onEventQueue(() -> manager.pruneBackups(count));
+        int deleted = 0;
+        for (BackupJob<Boolean> job : jobs) {
+            if (job.getFuture().get()) {
+                ++deleted;
+            }
+        }
+        System.out.printf("%d backups deleted\n", deleted);
+        if (deleted != jobs.size()) {
+            System.out.printf("%d backups could not be deleted\n", jobs.size() - deleted);
+        }
+    }
+
+    private static String formatSize(long bytes) {
+        String[] units = { "B", "KiB", "MiB", "GiB", "TiB" };
+        int unitIdx = 0;
+        double size = bytes;
+        while (1024 <= size && unitIdx + 1 < units.length) {
+            size /= 1024;
+            ++unitIdx;
+        }
+        return String.format(unitIdx == 0 ? "%.0f %s" : "%.1f %s", size, units[unitIdx]);
+    }
+}
@@ -1,73 +1,165 @@
 package dev.nicotopia.ncsgm.model;
 
-import java.awt.Image;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
 
 import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
 public class Backup implements Comparable<Backup> {
+    static final String ORIGIN = "dossgm";
+
     public static Optional<Backup> createFromExistingFile(File file) {
-        if (!file.isFile() || !file.canWrite() || !file.getName().endsWith(".zip")) {
+        return readMetadata(file).flatMap(m -> createFromMetadata(file, m));
+    }
+
+    static Optional<Backup> createFromMetadata(File file, BackupMetadata metadata) {
+        return ORIGIN.equals(metadata.origin()) && metadata.timestamp() != null && file.canWrite()
+                ? Optional.of(new Backup(file, metadata))
+                : Optional.empty();
+    }
+
+    /**
+     * Reads the metadata of a file with a backup extension, including that of
+     * files written by other applications, which can be told apart by their
+     * origin. Empty for other files or if the file could not be read.
+     */
+    static Optional<BackupMetadata> readMetadata(File file) {
+        var format = BackupFormat.ofFileName(file.getName());
+        if (!file.isFile() || format.isEmpty()) {
             return Optional.empty();
         }
-        try (var zip = new ZipFile(file, ZipFile.OPEN_READ)) {
-            return Optional.ofNullable(zip.getComment()).map(JSONObject::new)
-                    .filter(j -> "dossgm".equals(j.optString("origin")))
-                    .map(j -> new Backup(file, j.getString("timestamp")));
+        try {
+            switch (format.get()) {
+            case ZIP -> {
+                try (var zip = new ZipFile(file, ZipFile.OPEN_READ)) {
+                    var header = zip.getComment() != null ? new JSONObject(zip.getComment()) : new JSONObject();
+                    long uncompressedSize = zip.stream().mapToLong(e -> Math.max(0, e.getSize())).sum();
+                    return Optional.of(new BackupMetadata(BackupFormat.ZIP, header.optString("origin", null),
+                            header.optString("timestamp", null), zip.size(), uncompressedSize, 0));
+                } catch (JSONException ex) {
+                    return Optional.of(new BackupMetadata(BackupFormat.ZIP, null, null, 0, 0, 0));
+                }
+            }
+            case DEDUP -> {
+                var manifest = readManifest(file);
+                var entries = manifest.optJSONArray("entries");
+                long uncompressedSize = 0;
+                for (int i = 0; entries != null && i < entries.length(); ++i) {
+                    uncompressedSize += Math.max(0, entries.getJSONObject(i).optLong("size", 0));
+                }
+                return Optional.of(new BackupMetadata(BackupFormat.DEDUP, manifest.optString("origin", null),
+                        manifest.optString("timestamp", null), entries != null ? entries.length() : 0,
+                        uncompressedSize, manifest.optLong("storedSize", 0)));
+            }
+            }
         } catch (IOException | JSONException ex) {
-            return Optional.empty();
         }
+        return Optional.empty();
     }
 
-    public static Optional<Backup> createNew(Path path, String name, String timestamp) {
-        var file = path.resolve(name + ".zip").toFile();
-        return !file.exists() ? Optional.of(new Backup(file, timestamp)) : Optional.empty();
+    public static Optional<Backup> createNew(Path path, String name, String timestamp, BackupFormat format) {
+        var file = path.resolve(name + format.getExtension()).toFile();
+        return !file.exists() ? Optional.of(new Backup(file, format, timestamp)) : Optional.empty();
     }
 
-    private File file;
+    private static JSONObject readManifest(File file) throws IOException {
+        return new JSONObject(Files.readString(file.toPath(), StandardCharsets.UTF_8));
+    }
+
+    private volatile File file;
+    private final BackupFormat format;
     private final String timestamp;
-    private Image image;
+    private volatile BackupMetadata metadata;
     private boolean active = false;
     private final List<PropertyChangeListener> listeners = new LinkedList<>();
 
-    private Backup(File file, String timestamp) {
+    private Backup(File file, BackupFormat format, String timestamp) {
         this.file = file;
+        this.format = format;
         this.timestamp = timestamp;
-        try {
-            this.updateImage();
-        } catch (IOException ex) {
-            ex.printStackTrace();
+    }
+
+    private Backup(File file, BackupMetadata metadata) {
+        this(file, metadata.format(), metadata.timestamp());
+        this.metadata = metadata;
+    }
+
+    File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns the metadata of the backup, reading it from the file the first
+     * time. Null if the file could not be read.
+     */
+    BackupMetadata getMetadata() {
+        if (this.metadata == null) {
+            this.metadata = readMetadata(this.file).orElse(null);
         }
+        return this.metadata;
     }
 
     public String getName() {
-        return this.file.getName().substring(0, this.file.getName().length() - 4);
+        return this.file.getName().substring(0,
+                this.file.getName().length() - this.format.getExtension().length());
+    }
+
+    public String getTimestamp() {
+        return this.timestamp;
     }
 
-    public Image getImage() {
-        return this.image;
+    public BackupFormat getFormat() {
+        return this.format;
     }
 
     public long getLastModified() {
         return this.file.lastModified();
     }
 
+    /**
+     * Returns the number of bytes the backup occupies on disk. For DEDUP backups
+     * this includes all chunks the backup references, even if they are shared
+     * with other backups.
+     */
     public long getFileByteWidth() {
-        return this.file.length();
+        var metadata = this.getMetadata();
+        return this.file.length() + (metadata != null ? metadata.storedSize() : 0);
+    }
+
+    /**
+     * Returns the number of files and folders in the backup or -1 if unknown.
+     */
+    public int getEntryCount() {
+        var metadata = this.getMetadata();
+        return metadata != null ? metadata.entryCount() : -1;
+    }
+
+    /**
+     * Returns the total size of the backed up files or -1 if unknown.
+     */
+    public long getUncompressedSize() {
+        var metadata = this.getMetadata();
+        return metadata != null ? metadata.uncompressedSize() : -1;
     }
 
     public boolean isActive() {
@@ -87,7 +179,7 @@ public class Backup implements Comparable<Backup> {
     }
 
     public boolean setName(String newName) {
-        var newFile = this.file.toPath().getParent().resolve(newName + ".zip").toFile();
+        var newFile = this.file.toPath().getParent().resolve(newName + this.format.getExtension()).toFile();
         if (newFile.exists() || !this.file.renameTo(newFile)) {
             return false;
         }
@@ -97,26 +189,134 @@ public class Backup implements Comparable<Backup> {
         return true;
     }
 
-    public ZipOutputStream getOutputStream() throws IOException {
-        JSONObject commentJson = new JSONObject();
-        commentJson.put("origin", "dossgm");
-        commentJson.put("timestamp", timestamp);
-        var zos = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(this.file)));
-        zos.setComment(commentJson.toString());
-        return zos;
+    public BackupWriter openWriter(Configuration.Compression compression) throws IOException {
+        JSONObject header = new JSONObject();
+        header.put("origin", ORIGIN);
+        header.put("timestamp", timestamp);
+        return switch (this.format) {
+        case ZIP -> new ZipBackupWriter(this.file, compression, header.toString());
+        case DEDUP -> new ChunkedBackupWriter(this.file, this.getChunkStore(), compression, header);
+        };
     }
 
-    public ZipFile getZipFile() throws IOException {
-        return new ZipFile(this.file);
+    public BackupReader openReader() throws IOException {
+        return switch (this.format) {
+        case ZIP -> new ZipBackupReader(this.file);
+        case DEDUP -> {
+            try {
+                yield new ChunkedBackupReader(readManifest(this.file), this.getChunkStore());
+            } catch (JSONException ex) {
+                throw new IOException("Invalid manifest " + this.file, ex);
+            }
+        }
+        };
+    }
+
+    /**
+     * Lists the files and folders in the backup. Only the central directory of
+     * a ZIP backup or the manifest of a DEDUP backup is read, nothing is
+     * inflated.
+     */
+    public List<BackupEntry> listEntries() throws IOException {
+        try (var reader = this.openReader()) {
+            return reader.getEntries();
+        }
     }
 
-    public void updateImage() throws IOException {
-        if (this.file.isFile()) {
-            try (var zipFile = this.getZipFile()) {
-                var imageEntry = zipFile.stream().filter(e -> e.getName().endsWith(".png")).findFirst();
-                if (imageEntry.isPresent()) {
-                    this.image = ImageIO.read(zipFile.getInputStream(imageEntry.get()));
+    /**
+     * Opens the contents of the file with the given entry name, without reading
+     * any other entry. The backup is closed together with the stream.
+     */
+    public InputStream openEntry(String name) throws IOException {
+        var reader = this.openReader();
+        try {
+            var entry = reader.getEntries().stream().filter(e -> !e.directory() && e.name().equals(name)).findAny()
+                    .orElseThrow(() -> new FileNotFoundException(name));
+            return new FilterInputStream(reader.getInputStream(entry)) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        reader.close();
+                    }
+                }
+            };
+        } catch (IOException | RuntimeException ex) {
+            reader.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Returns the hashes of all chunks referenced by this backup. Empty for ZIP
+     * backups.
+     */
+    Set<String> getReferencedChunks() throws IOException {
+        return this.format == BackupFormat.DEDUP ? readReferencedChunks(this.file) : Set.of();
+    }
+
+    /**
+     * Returns the hashes of all chunks referenced by the given DEDUP manifest,
+     * whatever its origin. Fails if the manifest cannot be read or parsed.
+     */
+    static Set<String> readReferencedChunks(File manifestFile) throws IOException {
+        var chunks = new HashSet<String>();
+        try {
+            for (var entry : readManifest(manifestFile).getJSONArray("entries")) {
+                var hashes = ((JSONObject) entry).optJSONArray("chunks");
+                for (int i = 0; hashes != null && i < hashes.length(); ++i) {
+                    chunks.add(hashes.getString(i));
+                }
+            }
+        } catch (JSONException | ClassCastException ex) {
+            throw new IOException("Invalid manifest " + manifestFile, ex);
+        }
+        return chunks;
+    }
+
+    ChunkStore getChunkStore() {
+        return new ChunkStore(this.file.toPath().getParent());
+    }
+
+    /**
+     * Reads the first PNG of the backup, usually the screenshot of the save,
+     * scaled down to fit into the given size. The image is subsampled while
+     * decoding, so the full size image is never held in memory.
+     */
+    public Optional<BufferedImage> readThumbnail(int maxWidth, int maxHeight) throws IOException {
+        if (!this.file.isFile()) {
+            return Optional.empty();
+        }
+        try (var reader = this.openReader()) {
+            var imageEntry = reader.getEntries().stream().filter(e -> e.name().endsWith(".png")).findFirst();
+            if (imageEntry.isEmpty()) {
+                return Optional.empty();
+            }
+            var imageReader = ImageIO.getImageReadersByFormatName("png").next();
+            try (var is = reader.getInputStream(imageEntry.get());
+                    var iis = new MemoryCacheImageInputStream(is)) {
+                imageReader.setInput(iis, true, true);
+                int width = imageReader.getWidth(0);
+                int height = imageReader.getHeight(0);
+                var param = imageReader.getDefaultReadParam();
+                int subsampling = Math.max(1, Math.min(width / maxWidth, height / maxHeight));
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                var image = imageReader.read(0, param);
+                double scale = Math.min(1.0, Math.min((double) maxWidth / image.getWidth(),
+                        (double) maxHeight / image.getHeight()));
+                if (scale == 1.0) {
+                    return Optional.of(image);
                 }
+                var thumbnail = new BufferedImage(Math.max(1, (int) (scale * image.getWidth())),
+                        Math.max(1, (int) (scale * image.getHeight())), BufferedImage.TYPE_INT_ARGB);
+                var g = thumbnail.createGraphics();
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(image, 0, 0, thumbnail.getWidth(), thumbnail.getHeight(), null);
+                g.dispose();
+                return Optional.of(thumbnail);
+            } finally {
+                imageReader.dispose();
             }
         }
     }
@@ -0,0 +1,338 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executor;
+import java.util.function.IntBinaryOperator;
+import java.util.regex.Pattern;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+
+/**
+ * The backups of a {@link FolderBackupManager}, sorted by timestamp, with
+ * indexes by name and of the automatically named backups. Adding and removing
+ * backups fires one event per run of adjacent indices. Changes of single
+ * backups are collected and fired together once the current task on the event
+ * queue is done. Must only be used on the event queue.
+ */
+class BackupCatalog {
+    private final Object source;
+    private final Executor eventQueue;
+    private final Pattern managedPattern;
+    private final List<Backup> backups = new ArrayList<>();
+    // Adding order, to tell apart backups with the same timestamp.
+    private final Map<Backup, Long> sequence = new IdentityHashMap<>();
+    // Backups of different formats may have the same name.
+    private final Map<String, List<Backup>> byName = new HashMap<>();
+    private final Map<Backup, String> names = new IdentityHashMap<>();
+    private final TreeSet<Backup> managed;
+    private final List<ListDataListener> listeners = new LinkedList<>();
+    private final Set<Backup> changed = new LinkedHashSet<>();
+    private long nextSequence = 0;
+    private Backup active;
+
+    /**
+     * @param source         Source of the fired events.
+     * @param managedPattern Pattern of the names of automatically named backups.
+     */
+    BackupCatalog(Object source, Executor eventQueue, Pattern managedPattern) {
+        this.source = source;
+        this.eventQueue = eventQueue;
+        this.managedPattern = managedPattern;
+        this.managed = new TreeSet<>(Comparator.<Backup>naturalOrder().thenComparing(this.sequence::get));
+    }
+
+    void addListDataListener(ListDataListener l) {
+        this.listeners.add(l);
+    }
+
+    void removeListDataListener(ListDataListener l) {
+        this.listeners.remove(l);
+    }
+
+    int size() {
+        return this.backups.size();
+    }
+
+    Backup get(int index) {
+        return index < this.backups.size() ? this.backups.get(index) : null;
+    }
+
+    List<Backup> getAll() {
+        return Collections.unmodifiableList(this.backups);
+    }
+
+    /**
+     * Returns the index of the given backup or -1.
+     */
+    int indexOf(Backup backup) {
+        int idx = this.lowerBound(backup.getTimestamp());
+        while (idx < this.backups.size() && this.backups.get(idx).getTimestamp().equals(backup.getTimestamp())) {
+            if (this.backups.get(idx) == backup) {
+                return idx;
+            }
+            ++idx;
+        }
+        return -1;
+    }
+
+    Optional<Backup> findByTimestamp(String timestamp) {
+        int idx = this.lowerBound(timestamp);
+        return idx < this.backups.size() && this.backups.get(idx).getTimestamp().equals(timestamp)
+                ? Optional.of(this.backups.get(idx))
+                : Optional.empty();
+    }
+
+    /**
+     * Looks up a backup by its name, ignoring the case.
+     */
+    Optional<Backup> findByName(String name) {
+        return this.byName.getOrDefault(name.toLowerCase(Locale.ROOT), List.of()).stream().findFirst();
+    }
+
+    boolean isManaged(Backup backup) {
+        return this.managedPattern.matcher(backup.getName()).matches();
+    }
+
+    int getManagedCount() {
+        return this.managed.size();
+    }
+
+    /**
+     * Returns the given number of the oldest automatically named backups.
+     */
+    List<Backup> getOldestManaged(int count) {
+        var oldest = new ArrayList<Backup>(Math.max(0, count));
+        for (var it = this.managed.iterator(); it.hasNext() && oldest.size() < count;) {
+            oldest.add(it.next());
+        }
+        return oldest;
+    }
+
+    Backup getActive() {
+        return this.active;
+    }
+
+    /**
+     * Makes the given backup the active one, which may be null.
+     */
+    void setActive(Backup backup) {
+        if (this.active != null && this.active != backup) {
+            this.active.setActive(false);
+        }
+        this.active = backup;
+        if (backup != null) {
+            backup.setActive(true);
+        }
+    }
+
+    /**
+     * Merges the given backups into the catalog, firing one INTERVAL_ADDED
+     * event per run of adjacent new backups. The events are fired in ascending
+     * order, so the indices of each are valid once the previous ones have been
+     * applied.
+     */
+    void addAll(Collection<Backup> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        var sorted = new ArrayList<>(added);
+        Collections.sort(sorted);
+        if (this.backups.isEmpty() || this.backups.get(this.backups.size() - 1).compareTo(sorted.get(0)) <= 0) {
+            // The common case of backups newer than all others, e.g. a new backup.
+            int first = this.backups.size();
+            sorted.forEach(this::index);
+            this.backups.addAll(sorted);
+            this.fire(ListDataEvent.INTERVAL_ADDED, first, this.backups.size() - 1);
+            return;
+        }
+        var merged = new ArrayList<Backup>(this.backups.size() + sorted.size());
+        var isNew = new boolean[this.backups.size() + sorted.size()];
+        int i = 0;
+        for (var backup : sorted) {
+            this.index(backup);
+            while (i < this.backups.size() && this.backups.get(i).compareTo(backup) <= 0) {
+                merged.add(this.backups.get(i++));
+            }
+            isNew[merged.size()] = true;
+            merged.add(backup);
+        }
+        while (i < this.backups.size()) {
+            merged.add(this.backups.get(i++));
+        }
+        this.backups.clear();
+        this.backups.addAll(merged);
+        this.fireRuns(isNew, ListDataEvent.INTERVAL_ADDED, (first, last) -> first);
+    }
+
+    /**
+     * Removes the given backups, firing one INTERVAL_REMOVED event per run of
+     * adjacent backups. The events are fired in ascending order, with indices
+     * valid once the previous ones have been applied. Returns the removed
+     * backups, sorted, without those which were not in the catalog.
+     */
+    List<Backup> removeAll(Collection<Backup> removed) {
+        var isRemoved = new boolean[this.backups.size()];
+        int count = 0;
+        for (var backup : removed) {
+            int idx = this.indexOf(backup);
+            if (idx != -1 && !isRemoved[idx]) {
+                isRemoved[idx] = true;
+                ++count;
+            }
+        }
+        if (count == 0) {
+            return List.of();
+        }
+        var remaining = new ArrayList<Backup>(this.backups.size() - count);
+        var result = new ArrayList<Backup>(count);
+        for (int i = 0; i < this.backups.size(); ++i) {
+            if (isRemoved[i]) {
+                this.unindex(this.backups.get(i));
+                result.add(this.backups.get(i));
+            } else {
+                remaining.add(this.backups.get(i));
+            }
+        }
+        this.backups.clear();
+        this.backups.addAll(remaining);
+        int[] removedBefore = { 0 };
+        this.fireRuns(isRemoved, ListDataEvent.INTERVAL_REMOVED, (first, last) -> {
+            int shifted = first - removedBefore[0];
+            removedBefore[0] += last - first + 1;
+            return shifted;
+        });
+        return result;
+    }
+
+    /**
+     * Updates the indexes after the name of the given backup has changed, or
+     * some other property has. Fires a CONTENTS_CHANGED event later on, together
+     * with those of other changed backups.
+     */
+    void changed(Backup backup) {
+        if (!this.names.containsKey(backup)) {
+            return;
+        }
+        var name = backup.getName().toLowerCase(Locale.ROOT);
+        var previous = this.names.put(backup, name);
+        if (!name.equals(previous)) {
+            this.removeName(previous, backup);
+            this.byName.computeIfAbsent(name, n -> new ArrayList<>(1)).add(backup);
+            this.managed.remove(backup);
+            if (this.isManaged(backup)) {
+                this.managed.add(backup);
+            }
+        }
+        boolean scheduled = !this.changed.isEmpty();
+        this.changed.add(backup);
+        if (!scheduled) {
+            this.eventQueue.execute(this::fireChanged);
+        }
+    }
+
+    private void fireChanged() {
+        int first = Integer.MAX_VALUE;
+        int last = -1;
+        for (var backup : this.changed) {
+            int idx = this.indexOf(backup);
+            if (idx != -1) {
+                first = Math.min(first, idx);
+                last = Math.max(last, idx);
+            }
+        }
+        this.changed.clear();
+        if (last != -1) {
+            this.fire(ListDataEvent.CONTENTS_CHANGED, first, last);
+        }
+    }
+
+    private void index(Backup backup) {
+        this.sequence.put(backup, this.nextSequence++);
+        var name = backup.getName().toLowerCase(Locale.ROOT);
+        this.names.put(backup, name);
+        this.byName.computeIfAbsent(name, n -> new ArrayList<>(1)).add(backup);
+        if (this.isManaged(backup)) {
+            this.managed.add(backup);
+        }
+        if (backup.isActive()) {
+            this.setActive(backup);
+        }
+    }
+
+    private void unindex(Backup backup) {
+        this.managed.remove(backup);
+        this.removeName(this.names.remove(backup), backup);
+        this.sequence.remove(backup);
+        this.changed.remove(backup);
+        if (this.active == backup) {
+            this.active = null;
+        }
+    }
+
+    private void removeName(String name, Backup backup) {
+        var named = this.byName.get(name);
+        if (named != null && named.remove(backup) && named.isEmpty()) {
+            this.byName.remove(name);
+        }
+    }
+
+    /**
+     * Returns the index of the first backup with the given timestamp or later.
+     */
+    private int lowerBound(String timestamp) {
+        int lo = 0;
+        int hi = this.backups.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (this.backups.get(mid).getTimestamp().compareTo(timestamp) < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Fires one event per run of set flags. The index the event is fired with
+     * is mapped from the first index of the run and the last one.
+     */
+    private void fireRuns(boolean[] flags, int type, IntBinaryOperator firstIndex) {
+        for (int first = 0; first < flags.length; ++first) {
+            if (flags[first]) {
+                int last = first;
+                while (last + 1 < flags.length && flags[last + 1]) {
+                    ++last;
+                }
+                int shifted = firstIndex.applyAsInt(first, last);
+                this.fire(type, shifted, shifted + last - first);
+                first = last;
+            }
+        }
+    }
+
+    private void fire(int type, int first, int last) {
+        var evt = new ListDataEvent(this.source, type, first, last);
+        for (var l : this.listeners) {
+            switch (type) {
+            case ListDataEvent.INTERVAL_ADDED -> l.intervalAdded(evt);
+            case ListDataEvent.INTERVAL_REMOVED -> l.intervalRemoved(evt);
+            default -> l.contentsChanged(evt);
+            }
+        }
+    }
+}
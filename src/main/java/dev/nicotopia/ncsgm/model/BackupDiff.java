@@ -0,0 +1,166 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Files and folders which were added, removed or changed between two backups
+ * or a backup and the watched folder. Names are relative to the watched folder
+ * and use '/' as separator, folder names end with '/'. Files are compared by
+ * their sizes and CRC-32s, which are stored in the backups, so nothing is
+ * extracted. Only files of the watched folder with the same size as in the
+ * backup are read to compute their CRC-32, unless the index of the latest
+ * backup shows they are unchanged.
+ */
+public record BackupDiff(List<String> added, List<String> removed, List<String> changed) {
+    public boolean isEmpty() {
+        return this.added.isEmpty() && this.removed.isEmpty() && this.changed.isEmpty();
+    }
+
+    /**
+     * Compares the entries of an older backup with those of a newer one.
+     */
+    static BackupDiff compare(List<BackupEntry> from, List<BackupEntry> to) {
+        var remaining = byRelativeName(from);
+        var added = new ArrayList<String>();
+        var changed = new ArrayList<String>();
+        for (var entry : to) {
+            var name = relativeName(entry.name());
+            if (name == null) {
+                continue;
+            }
+            var previous = remaining.remove(key(name));
+            if (previous == null || previous.directory() != entry.directory()) {
+                added.add(name);
+            } else if (!entry.directory() && (previous.size() != entry.size()
+                    || (previous.crc() != -1 && entry.crc() != -1 && previous.crc() != entry.crc()))) {
+                changed.add(name);
+            }
+        }
+        return create(added, removed(remaining), changed);
+    }
+
+    /**
+     * Compares the entries of a backup with the current contents of the given
+     * folder.
+     *
+     * @param index Index of the backup or null.
+     */
+    static BackupDiff compare(List<BackupEntry> from, Path folder, FileIndex index, BackupJob<?> job)
+            throws IOException {
+        var remaining = byRelativeName(from);
+        var added = new ArrayList<String>();
+        var changed = new ArrayList<String>();
+        var rootName = folder.getFileName().toString();
+        var buffer = new byte[64 * 1024];
+        Files.walkFileTree(folder, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                job.checkCancelled();
+                if (!dir.equals(folder)) {
+                    this.compare(this.relativeName(dir) + "/", true);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                job.checkCancelled();
+                var name = this.relativeName(file);
+                var entry = this.compare(name, false);
+                if (entry != null && (entry.size() != attrs.size() || !this.isUnchanged(file, name, entry, attrs))) {
+                    changed.add(name);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            private String relativeName(Path path) {
+                return folder.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/");
+            }
+
+            /**
+             * Returns the entry of the backup with the given name, unless the
+             * name is new to the backup.
+             */
+            private BackupEntry compare(String name, boolean directory) {
+                var entry = remaining.remove(key(name));
+                if (entry == null || entry.directory() != directory) {
+                    added.add(name);
+                    return null;
+                }
+                return entry;
+            }
+
+            private boolean isUnchanged(Path file, String name, BackupEntry entry, BasicFileAttributes attrs)
+                    throws IOException {
+                var record = index != null ? index.get(rootName + "/" + name) : null;
+                if (record != null && record.size() == attrs.size()
+                        && record.lastModified() == attrs.lastModifiedTime().toMillis()) {
+                    return true;
+                } else if (entry.crc() == -1) {
+                    return true;
+                }
+                var crc = new CRC32();
+                try (var is = Files.newInputStream(file)) {
+                    int read;
+                    while ((read = is.read(buffer)) != -1) {
+                        crc.update(buffer, 0, read);
+                        job.addBytesProcessed(read);
+                    }
+                }
+                return crc.getValue() == entry.crc();
+            }
+        });
+        return create(added, removed(remaining), changed);
+    }
+
+    private static List<String> removed(Map<String, BackupEntry> remaining) {
+        var removed = new ArrayList<String>(remaining.size());
+        remaining.forEach((key, entry) -> removed.add(entry.directory() ? key + "/" : key));
+        return removed;
+    }
+
+    private static BackupDiff create(List<String> added, List<String> removed, List<String> changed) {
+        added.sort(null);
+        removed.sort(null);
+        changed.sort(null);
+        return new BackupDiff(List.copyOf(added), List.copyOf(removed), List.copyOf(changed));
+    }
+
+    /**
+     * Maps the entries by their names relative to the watched folder, without
+     * the trailing '/' of folders.
+     */
+    private static Map<String, BackupEntry> byRelativeName(List<BackupEntry> entries) {
+        var byName = new HashMap<String, BackupEntry>(2 * entries.size());
+        for (var entry : entries) {
+            var name = relativeName(entry.name());
+            if (name != null) {
+                byName.put(key(name), entry);
+            }
+        }
+        return byName;
+    }
+
+    private static String key(String name) {
+        return name.endsWith("/") ? name.substring(0, name.length() - 1) : name;
+    }
+
+    /**
+     * Strips the watched folder, the first element, from an entry name. Null for
+     * the watched folder itself.
+     */
+    private static String relativeName(String entryName) {
+        int slash = entryName.indexOf('/');
+        return slash == -1 || slash == entryName.length() - 1 ? null : entryName.substring(slash + 1);
+    }
+}
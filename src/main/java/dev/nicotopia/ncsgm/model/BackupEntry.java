@@ -0,0 +1,9 @@
+package dev.nicotopia.ncsgm.model;
+
+/**
+ * A file or folder inside a backup. Names are relative to the parent of the
+ * watched folder and use '/' as separator, folder names end with '/'. The CRC
+ * is the CRC-32 of the uncompressed contents or -1 if unknown.
+ */
+public record BackupEntry(String name, boolean directory, long size, long crc, long lastModified) {
+}
@@ -0,0 +1,35 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+/**
+ * Storage format of a backup. ZIP writes one self-contained archive per
+ * backup, DEDUP writes a small manifest per backup and stores the file
+ * contents as content addressed chunks shared by all backups in the folder.
+ */
+public enum BackupFormat {
+    ZIP(".zip"), DEDUP(".ncsgm");
+
+    private final String extension;
+
+    private BackupFormat(String extension) {
+        this.extension = extension;
+    }
+
+    public String getExtension() {
+        return this.extension;
+    }
+
+    /**
+     * Returns the format a file with the given name would have if it was a
+     * backup.
+     */
+    public static Optional<BackupFormat> ofFileName(String fileName) {
+        return Arrays.stream(values()).filter(f -> fileName.endsWith(f.getExtension())).findFirst();
+    }
+
+    public static BackupFormat fromJson(String value) {
+        return value == null ? ZIP : BackupFormat.valueOf(value.toUpperCase());
+    }
+}
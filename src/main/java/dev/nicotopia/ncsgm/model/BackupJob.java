@@ -0,0 +1,102 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * A unit of work queued on the backup worker of a {@link FolderBackupManager}.
+ * Jobs report the number of bytes they have processed so far and can be
+ * cancelled, either while waiting in the queue or at the next checkpoint of a
+ * running job.
+ */
+public class BackupJob<T> {
+    @FunctionalInterface
+    public interface Task<T> {
+        T run(BackupJob<T> job) throws Exception;
+    }
+
+    private final String description;
+    private final Task<T> task;
+    private final Executor eventQueue;
+    private final CompletableFuture<T> future = new CompletableFuture<>();
+    private final AtomicLong bytesProcessed = new AtomicLong();
+    private volatile long bytesTotal = -1;
+    private volatile boolean cancelled = false;
+
+    BackupJob(String description, Executor eventQueue, Task<T> task) {
+        this.description = description;
+        this.eventQueue = eventQueue;
+        this.task = task;
+    }
+
+    void run() {
+        try {
+            this.checkCancelled();
+            this.future.complete(this.task.run(this));
+        } catch (Exception ex) {
+            this.future.completeExceptionally(ex);
+        }
+    }
+
+    public String getDescription() {
+        return this.description;
+    }
+
+    public long getBytesProcessed() {
+        return this.bytesProcessed.get();
+    }
+
+    /**
+     * Returns the total number of bytes this job is going to process or -1 if
+     * unknown.
+     */
+    public long getBytesTotal() {
+        return this.bytesTotal;
+    }
+
+    public void setBytesTotal(long bytesTotal) {
+        this.bytesTotal = bytesTotal;
+    }
+
+    public void addBytesProcessed(long bytes) {
+        this.bytesProcessed.addAndGet(bytes);
+    }
+
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return this.cancelled;
+    }
+
+    public void checkCancelled() {
+        if (this.cancelled) {
+            throw new CancellationException(this.description + " cancelled.");
+        }
+    }
+
+    public boolean isDone() {
+        return this.future.isDone();
+    }
+
+    public CompletableFuture<T> getFuture() {
+        return this.future;
+    }
+
+    /**
+     * Registers a callback which is run on the event queue once the job has
+     * finished. Exactly one of the arguments is non-null, unless the job
+     * completed with a null result. Cancellation is reported as a
+     * {@link CancellationException}.
+     */
+    public BackupJob<T> whenDone(BiConsumer<T, Throwable> callback) {
+        this.future.whenCompleteAsync((result, ex) -> callback.accept(result,
+                ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex), this.eventQueue);
+        return this;
+    }
+}
@@ -0,0 +1,9 @@
+package dev.nicotopia.ncsgm.model;
+
+/**
+ * What is known about a backup file without opening it again. storedSize is
+ * the size of the chunks a DEDUP backup references and 0 for ZIP backups.
+ */
+record BackupMetadata(BackupFormat format, String origin, String timestamp, int entryCount,
+        long uncompressedSize, long storedSize) {
+}
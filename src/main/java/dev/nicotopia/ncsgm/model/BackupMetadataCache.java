@@ -0,0 +1,225 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Sidecar cache in the backup folder holding the metadata and thumbnail of
+ * every backup file, so that listing the backups does not need to open them.
+ * Entries are keyed by file name and only valid as long as the size and
+ * modification time of the file are unchanged. Thread-safe.
+ */
+class BackupMetadataCache {
+    private record Entry(long fileSize, long lastModified, BackupMetadata metadata, Boolean hasThumbnail) {
+        boolean matches(File file) {
+            return this.fileSize == file.length() && this.lastModified == file.lastModified();
+        }
+    }
+
+    private static final String FILE_NAME = ".metadata.json";
+    private static final String THUMBNAIL_FOLDER_NAME = ".thumbnails";
+
+    private final Path backupFolder;
+    private final Map<String, Entry> entries = new HashMap<>();
+    private boolean dirty = false;
+
+    private BackupMetadataCache(Path backupFolder) {
+        this.backupFolder = backupFolder;
+    }
+
+    /**
+     * Loads the cache of the given backup folder. A missing or corrupt cache
+     * file results in an empty cache.
+     */
+    static BackupMetadataCache load(Path backupFolder) {
+        var cache = new BackupMetadataCache(backupFolder);
+        var file = backupFolder.resolve(FILE_NAME);
+        if (Files.isRegularFile(file)) {
+            try {
+                var json = new JSONObject(Files.readString(file, StandardCharsets.UTF_8)).getJSONObject("files");
+                for (var name : json.keySet()) {
+                    var entry = json.getJSONObject(name);
+                    var metadata = new BackupMetadata(BackupFormat.valueOf(entry.getString("format")),
+                            entry.optString("origin", null), entry.optString("timestamp", null),
+                            entry.getInt("entryCount"), entry.getLong("uncompressedSize"),
+                            entry.getLong("storedSize"));
+                    cache.entries.put(name, new Entry(entry.getLong("fileSize"), entry.getLong("lastModified"),
+                            metadata, entry.has("thumbnail") ? entry.getBoolean("thumbnail") : null));
+                }
+            } catch (IOException | JSONException | IllegalArgumentException ex) {
+                cache.entries.clear();
+                cache.dirty = true;
+            }
+        }
+        return cache;
+    }
+
+    synchronized Optional<BackupMetadata> get(File file) {
+        var entry = this.entries.get(file.getName());
+        return entry != null && entry.matches(file) ? Optional.of(entry.metadata()) : Optional.empty();
+    }
+
+    synchronized void put(File file, BackupMetadata metadata) {
+        this.entries.put(file.getName(), new Entry(file.length(), file.lastModified(), metadata, null));
+        this.deleteThumbnail(file.getName());
+        this.dirty = true;
+    }
+
+    synchronized void rename(File from, File to) {
+        var entry = this.entries.remove(from.getName());
+        if (entry != null) {
+            try {
+                var thumbnail = this.thumbnailPath(from.getName());
+                if (Files.isRegularFile(thumbnail)) {
+                    Files.move(thumbnail, this.thumbnailPath(to.getName()), StandardCopyOption.REPLACE_EXISTING);
+                }
+                this.entries.put(to.getName(), entry);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                this.deleteThumbnail(from.getName());
+                this.entries.put(to.getName(), new Entry(entry.fileSize(), entry.lastModified(), entry.metadata(),
+                        null));
+            }
+            this.dirty = true;
+        }
+    }
+
+    synchronized void remove(File file) {
+        if (this.entries.remove(file.getName()) != null) {
+            this.deleteThumbnail(file.getName());
+            this.dirty = true;
+        }
+    }
+
+    /**
+     * Drops the entries of all files whose names are not in the given set.
+     */
+    synchronized void retain(Set<String> fileNames) {
+        for (var name : Set.copyOf(this.entries.keySet())) {
+            if (!fileNames.contains(name)) {
+                this.entries.remove(name);
+                this.deleteThumbnail(name);
+                this.dirty = true;
+            }
+        }
+    }
+
+    /**
+     * Returns the cached thumbnail of the given file, an empty optional if the
+     * file is known to have none or null if unknown.
+     */
+    synchronized Optional<BufferedImage> getThumbnail(File file) {
+        var entry = this.entries.get(file.getName());
+        if (entry == null || !entry.matches(file) || entry.hasThumbnail() == null) {
+            return null;
+        } else if (!entry.hasThumbnail()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.ofNullable(ImageIO.read(this.thumbnailPath(file.getName()).toFile()));
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the thumbnail of the given file. The JPEG is encoded without
+     * holding the lock, so only writing the entry blocks other threads.
+     */
+    void putThumbnail(File file, Optional<BufferedImage> thumbnail) {
+        Entry entry;
+        synchronized (this) {
+            entry = this.entries.get(file.getName());
+            if (entry == null || !entry.matches(file)) {
+                return;
+            }
+        }
+        var path = this.thumbnailPath(file.getName());
+        try {
+            if (thumbnail.isPresent()) {
+                // JPEG cannot hold an alpha channel.
+                var image = thumbnail.get();
+                var rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+                var g = rgb.createGraphics();
+                g.drawImage(image, 0, 0, null);
+                g.dispose();
+                Files.createDirectories(path.getParent());
+                var tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+                try {
+                    if (!ImageIO.write(rgb, "jpg", tmp.toFile())) {
+                        return;
+                    }
+                    Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(tmp);
+                }
+            }
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return;
+        }
+        synchronized (this) {
+            if (this.entries.get(file.getName()) != entry) {
+                // Changed, renamed or removed while encoding.
+                this.deleteThumbnail(file.getName());
+                return;
+            }
+            this.entries.put(file.getName(), new Entry(entry.fileSize(), entry.lastModified(), entry.metadata(),
+                    thumbnail.isPresent()));
+            this.dirty = true;
+        }
+    }
+
+    private Path thumbnailPath(String fileName) {
+        return this.backupFolder.resolve(THUMBNAIL_FOLDER_NAME).resolve(fileName + ".jpg");
+    }
+
+    private void deleteThumbnail(String fileName) {
+        try {
+            Files.deleteIfExists(this.thumbnailPath(fileName));
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes the cache file if anything has changed since it was last written.
+     */
+    synchronized void save() {
+        if (!this.dirty) {
+            return;
+        }
+        var files = new JSONObject();
+        this.entries.forEach((name, entry) -> {
+            var metadata = entry.metadata();
+            files.put(name, new JSONObject().put("fileSize", entry.fileSize())
+                    .put("lastModified", entry.lastModified()).put("format", metadata.format().name())
+                    .put("origin", metadata.origin()).put("timestamp", metadata.timestamp())
+                    .put("entryCount", metadata.entryCount()).put("uncompressedSize", metadata.uncompressedSize())
+                    .put("storedSize", metadata.storedSize()).put("thumbnail", entry.hasThumbnail()));
+        });
+        try {
+            var tmp = this.backupFolder.resolve(FILE_NAME + ".tmp");
+            Files.writeString(tmp, new JSONObject().put("files", files).toString(), StandardCharsets.UTF_8);
+            Files.move(tmp, this.backupFolder.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            this.dirty = false;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+}
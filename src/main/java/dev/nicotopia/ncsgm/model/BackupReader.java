@@ -0,0 +1,16 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+public interface BackupReader extends Closeable {
+    List<BackupEntry> getEntries();
+
+    /**
+     * May be called from several threads concurrently, each stream must only
+     * be used by one thread though.
+     */
+    InputStream getInputStream(BackupEntry entry) throws IOException;
+}
@@ -0,0 +1,140 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the jobs of several backup managers on a fixed number of worker
+ * threads. Every manager gets its own lane whose tasks run one after another
+ * in the order they were queued. Lanes with queued tasks take turns, one task
+ * each, so a configuration with many queued jobs cannot starve the others.
+ * The compression pool is shared by all lanes as well.
+ */
+class BackupScheduler {
+    /**
+     * Serial executor of a single manager.
+     */
+    class Lane implements Executor {
+        private final Deque<Runnable> tasks = new ArrayDeque<>();
+        // Whether the lane is waiting for its turn or running a task.
+        private boolean scheduled = false;
+        private boolean shutdown = false;
+
+        @Override
+        public void execute(Runnable task) {
+            synchronized (BackupScheduler.this) {
+                if (this.shutdown || BackupScheduler.this.shutdown) {
+                    throw new RejectedExecutionException("Backup lane has been shut down.");
+                }
+                this.tasks.add(task);
+                if (!this.scheduled) {
+                    this.scheduled = true;
+                    BackupScheduler.this.ready.add(this);
+                    BackupScheduler.this.notifyAll();
+                }
+            }
+        }
+
+        /**
+         * Rejects new tasks, already queued tasks are still run.
+         */
+        void shutdown() {
+            synchronized (BackupScheduler.this) {
+                this.shutdown = true;
+            }
+        }
+
+        boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            long deadline = System.nanoTime() + unit.toNanos(timeout);
+            synchronized (BackupScheduler.this) {
+                while (this.scheduled) {
+                    long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                    if (remaining <= 0) {
+                        return false;
+                    }
+                    BackupScheduler.this.wait(remaining);
+                }
+                return true;
+            }
+        }
+    }
+
+    private final Deque<Lane> ready = new ArrayDeque<>();
+    private final int compressionThreads;
+    private ExecutorService compressionPool;
+    private boolean shutdown = false;
+
+    BackupScheduler(int workerThreads, int compressionThreads) {
+        this.compressionThreads = compressionThreads;
+        for (int i = 0; i < workerThreads; ++i) {
+            var worker = new Thread(this::work, "Backup worker");
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    Lane newLane() {
+        return new Lane();
+    }
+
+    synchronized ExecutorService getCompressionPool() {
+        if (this.compressionPool == null) {
+            this.compressionPool = Executors.newFixedThreadPool(this.compressionThreads, r -> {
+                var thread = new Thread(r, "Backup compression");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return this.compressionPool;
+    }
+
+    private void work() {
+        try {
+            while (true) {
+                Lane lane;
+                Runnable task;
+                synchronized (this) {
+                    while (this.ready.isEmpty() && !this.shutdown) {
+                        this.wait();
+                    }
+                    if (this.ready.isEmpty()) {
+                        return;
+                    }
+                    lane = this.ready.poll();
+                    task = lane.tasks.poll();
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException ex) {
+                    ex.printStackTrace();
+                }
+                synchronized (this) {
+                    if (lane.tasks.isEmpty()) {
+                        lane.scheduled = false;
+                        this.notifyAll();
+                    } else {
+                        this.ready.add(lane);
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+        }
+    }
+
+    /**
+     * Rejects new tasks and lets the workers exit once all queued tasks have
+     * run.
+     */
+    synchronized void shutdown() {
+        this.shutdown = true;
+        this.notifyAll();
+        if (this.compressionPool != null) {
+            this.compressionPool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches and backs up any number of configurations at once. All of them share
+ * one watch service and one scheduler with a fixed number of backup workers,
+ * so the threads in use do not grow with the number of configurations. Jobs
+ * are queued per configuration and the configurations with queued jobs take
+ * turns. Configurations with profiles get one manager per profile, and
+ * profiles created later on are picked up while the service is running.
+ */
+public class BackupService {
+    /**
+     * Manager and watcher of a configuration or one of its profiles.
+     */
+    private record Entry(String configName, FolderBackupManager manager, FolderWatcher watcher) {
+    }
+
+    private final Executor eventQueue;
+    private final BackupScheduler scheduler;
+    private final FolderWatchService watchService = new FolderWatchService();
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+    private final Map<String, PathGlob.Watch> profileWatches = new HashMap<>();
+
+    /**
+     * @param workerThreads Number of backups created or restored at the same
+     *                      time, across all configurations.
+     * @param eventQueue    Executor of the managers, see
+     *                      {@link FolderBackupManager}.
+     */
+    public BackupService(int workerThreads, Executor eventQueue) {
+        this.eventQueue = eventQueue;
+        this.scheduler = new BackupScheduler(workerThreads, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Starts watching the given configuration, or each of its profiles, and
+     * creates a backup after every change.
+     */
+    public synchronized void add(Configuration config) {
+        if (this.entries.values().stream().anyMatch(e -> e.configName().equals(config.name()))
+                || this.profileWatches.containsKey(config.name())) {
+            throw new IllegalArgumentException("Configuration added already: " + config.name());
+        } else if (config.profiles() == null) {
+            this.addEntry(config.name(), config);
+        } else {
+            this.profileWatches.put(config.name(), config.profiles().pathToWatch().watch(this.watchService, match -> {
+                var profile = config.forProfile(match);
+                File backupFolder = profile.backupFolder().toFile();
+                if (!backupFolder.exists() && !backupFolder.mkdirs()) {
+                    System.err.println("Creation of backup folder failed: " + backupFolder);
+                    return;
+                }
+                synchronized (this) {
+                    if (this.profileWatches.containsKey(config.name())) {
+                        this.addEntry(config.name(), profile);
+                    }
+                }
+            }));
+        }
+    }
+
+    private void addEntry(String configName, Configuration config) {
+        var manager = new FolderBackupManager(config, this.eventQueue, this.scheduler);
+        var watcher = new FolderWatcher(config.pathToWatch(), config.debounce(), this.watchService);
+        watcher.start(changedAt -> manager.createBackup(changedAt).whenDone((idx, ex) -> {
+            if (ex != null) {
+                ex.printStackTrace();
+            }
+        }));
+        this.entries.put(config.name(), new Entry(configName, manager, watcher));
+    }
+
+    /**
+     * Stops watching the configuration with the given name, including all of
+     * its profiles. Their queued jobs still run.
+     */
+    public void remove(String name) {
+        PathGlob.Watch profileWatch;
+        var removed = new ArrayList<Entry>();
+        synchronized (this) {
+            profileWatch = this.profileWatches.remove(name);
+            for (var it = this.entries.values().iterator(); it.hasNext();) {
+                var entry = it.next();
+                if (entry.configName().equals(name)) {
+                    removed.add(entry);
+                    it.remove();
+                }
+            }
+        }
+        if (profileWatch != null) {
+            profileWatch.stop();
+        }
+        for (var entry : removed) {
+            entry.watcher().interrupt(true);
+            entry.manager().shutdown();
+        }
+    }
+
+    public synchronized List<FolderBackupManager> getManagers() {
+        return this.entries.values().stream().map(Entry::manager).toList();
+    }
+
+    /**
+     * Stops watching all configurations. Queued jobs still run, see
+     * {@link #awaitTermination(long, TimeUnit)}.
+     */
+    public void shutdown() {
+        List<Entry> entries;
+        List<PathGlob.Watch> profileWatches;
+        synchronized (this) {
+            entries = new ArrayList<>(this.entries.values());
+            profileWatches = new ArrayList<>(this.profileWatches.values());
+            this.profileWatches.clear();
+        }
+        profileWatches.forEach(PathGlob.Watch::stop);
+        entries.forEach(e -> e.watcher().interrupt(true));
+        this.watchService.shutdown();
+        entries.forEach(e -> e.manager().shutdown());
+        this.scheduler.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (var manager : this.getManagers()) {
+            if (!manager.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,54 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.function.IntConsumer;
+
+/**
+ * Writes the entries of a new backup. The backup is complete once the writer
+ * has been closed.
+ */
+public interface BackupWriter extends Closeable {
+    /**
+     * A file which has been read and compressed by
+     * {@link BackupWriter#prepareFile(String, File, long, IntConsumer)} and is
+     * ready to be put. Closing it discards any temporary data.
+     */
+    interface PreparedFile extends Closeable {
+        /**
+         * Returns the hex SHA-256 of the file contents.
+         */
+        String getHash();
+    }
+
+    void putDirectory(String name, long lastModified) throws IOException;
+
+    /**
+     * Reads, compresses and puts a file and returns the hex SHA-256 of its
+     * contents.
+     */
+    String putFile(String name, File file, long lastModified, IntConsumer onProgress) throws IOException;
+
+    /**
+     * Reads and compresses a file without putting it yet. Unlike all other
+     * methods this one may be called from several threads concurrently, the
+     * results are then put in the desired order by
+     * {@link #putPrepared(PreparedFile)}.
+     */
+    PreparedFile prepareFile(String name, File file, long lastModified, IntConsumer onProgress) throws IOException;
+
+    void putPrepared(PreparedFile file) throws IOException;
+
+    /**
+     * Copies an entry of another backup of the same format without reading and
+     * compressing its contents again.
+     */
+    void putCopy(BackupReader source, BackupEntry entry) throws IOException;
+
+    /**
+     * Returns the number of bytes written to disk for this backup, which for
+     * DEDUP backups only includes newly stored chunks. Final once closed.
+     */
+    long getBytesWritten();
+}
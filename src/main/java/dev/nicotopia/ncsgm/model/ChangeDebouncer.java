@@ -0,0 +1,72 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.nio.file.Path;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongConsumer;
+
+/**
+ * Coalesces change signals for a folder tree. After the first signal the tree
+ * is sampled until its sizes and modification times have been stable for the
+ * quiet period, or until the maximum delay has passed since the first signal.
+ * Only then the callback is run, once for the whole burst, with the time in
+ * milliseconds of the first signal.
+ */
+public class ChangeDebouncer {
+    private final Path root;
+    private final Configuration.Debounce settings;
+    private final ScheduledExecutorService scheduler;
+    private final LongConsumer onQuiescent;
+    private boolean pending = false;
+    private long firstChange;
+    private long stableSince;
+    private TreeSnapshot lastSample;
+
+    public ChangeDebouncer(Path root, Configuration.Debounce settings, ScheduledExecutorService scheduler,
+            LongConsumer onQuiescent) {
+        this.root = root;
+        this.settings = settings;
+        this.scheduler = scheduler;
+        this.onQuiescent = onQuiescent;
+    }
+
+    public synchronized void signal() {
+        long now = System.currentTimeMillis();
+        this.stableSince = now;
+        if (!this.pending) {
+            this.pending = true;
+            this.firstChange = now;
+            this.lastSample = null;
+            this.scheduleSample();
+        }
+    }
+
+    private void scheduleSample() {
+        long interval = Math.max(50, Math.min(1000, this.settings.quietPeriodMs() / 4));
+        this.scheduler.schedule(this::sample, interval, TimeUnit.MILLISECONDS);
+    }
+
+    private void sample() {
+        var snapshot = TreeSnapshot.of(this.root);
+        long firstChange;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (!snapshot.equals(this.lastSample)) {
+                this.lastSample = snapshot;
+                this.stableSince = now;
+            }
+            if (now - this.stableSince < this.settings.quietPeriodMs()
+                    && now - this.firstChange < this.settings.maxDelayMs()) {
+                this.scheduleSample();
+                return;
+            }
+            this.pending = false;
+            firstChange = this.firstChange;
+        }
+        try {
+            this.onQuiescent.accept(firstChange);
+        } catch (RuntimeException ex) {
+            ex.printStackTrace();
+        }
+    }
+}
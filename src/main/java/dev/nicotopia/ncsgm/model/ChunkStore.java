@@ -0,0 +1,243 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Content addressed store for the chunks of DEDUP backups. Every chunk is
+ * stored under the hex SHA-256 of its uncompressed contents, so a chunk shared
+ * by several files or backups is stored only once. Chunks are either zlib
+ * streams or a {@link #STORED_MARKER} followed by the plain contents, which
+ * can never be mistaken for a zlib header.
+ * <p>
+ * A writer pins every chunk it stores or reuses until it has written its
+ * manifest, see {@link #release()}, so the garbage collection keeps them.
+ * Pins only protect against writers of this process. Chunks of writers of
+ * other processes are protected by their modification time instead, which is
+ * updated whenever an existing chunk is reused.
+ */
+class ChunkStore {
+    static final String FOLDER_NAME = ".chunks";
+    private static final int STORED_MARKER = 0;
+    // Chunks modified within this time before a garbage collection are kept.
+    private static final long GRACE_PERIOD_MS = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Pinned chunks of a chunk folder and the lock which keeps the garbage
+     * collection from deleting a chunk while it is being pinned.
+     */
+    private static class Pins {
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+        private final Map<String, Integer> counts = new HashMap<>();
+    }
+
+    private static final Map<Path, Pins> PINS = new ConcurrentHashMap<>();
+
+    private final Path root;
+    private final Pins pins;
+    private final Set<String> pinned = ConcurrentHashMap.newKeySet();
+    private final LongAdder bytesWritten = new LongAdder();
+
+    ChunkStore(Path backupFolder) {
+        this.root = backupFolder.resolve(FOLDER_NAME);
+        this.pins = PINS.computeIfAbsent(this.root.toAbsolutePath().normalize(), r -> new Pins());
+    }
+
+    /**
+     * Returns the number of bytes of the chunks this instance has newly stored.
+     */
+    long getBytesWritten() {
+        return this.bytesWritten.sum();
+    }
+
+    private Path pathOf(String hash) {
+        return this.root.resolve(hash.substring(0, 2)).resolve(hash);
+    }
+
+    /**
+     * Stores and pins the chunk unless a chunk with the same hash exists
+     * already, which is pinned instead. Returns the number of bytes the chunk
+     * occupies on disk.
+     */
+    long put(byte[] hash, byte[] data, int length, Configuration.Compression compression) throws IOException {
+        var hex = HexFormat.of().formatHex(hash);
+        this.pins.lock.readLock().lock();
+        try {
+            this.pin(hex);
+            var path = this.pathOf(hex);
+            if (Files.isRegularFile(path) && this.touch(path)) {
+                return Files.size(path);
+            }
+            return this.store(path, data, length, compression);
+        } finally {
+            this.pins.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Pins the existing chunk with the given hash, e.g. one referenced by an
+     * entry copied from another backup, and returns the number of bytes it
+     * occupies on disk. Fails if the chunk does not exist.
+     */
+    long pinExisting(String hash) throws IOException {
+        this.pins.lock.readLock().lock();
+        try {
+            this.pin(hash);
+            var path = this.pathOf(hash);
+            this.touch(path);
+            return Files.size(path);
+        } finally {
+            this.pins.lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Marks a reused chunk as recently modified for the garbage collection of
+     * other processes. Returns false if it does not exist.
+     */
+    private boolean touch(Path path) {
+        try {
+            Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException ex) {
+            return false;
+        } catch (IOException ex) {
+            // E.g. a read-only chunk, which the pin still protects within this process.
+        }
+        return true;
+    }
+
+    private void pin(String hash) {
+        if (this.pinned.add(hash)) {
+            synchronized (this.pins.counts) {
+                this.pins.counts.merge(hash, 1, Integer::sum);
+            }
+        }
+    }
+
+    /**
+     * Unpins all chunks pinned through this instance. To be called once the
+     * manifest referencing them has been written or the backup was abandoned.
+     */
+    void release() {
+        synchronized (this.pins.counts) {
+            for (var hash : this.pinned) {
+                this.pins.counts.computeIfPresent(hash, (h, count) -> count == 1 ? null : count - 1);
+            }
+        }
+        this.pinned.clear();
+    }
+
+    private long store(Path path, byte[] data, int length, Configuration.Compression compression)
+            throws IOException {
+        Files.createDirectories(path.getParent());
+        var tmp = Files.createTempFile(this.root, "chunk", ".tmp");
+        try {
+            try (var os = Files.newOutputStream(tmp)) {
+                this.write(os, data, length, compression);
+            }
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE);
+            this.bytesWritten.add(Files.size(path));
+        } catch (FileAlreadyExistsException ex) {
+            // Stored concurrently under the same hash, i.e. with the same contents.
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        return Files.size(path);
+    }
+
+    private void write(OutputStream os, byte[] data, int length, Configuration.Compression compression)
+            throws IOException {
+        boolean store = switch (compression.codec()) {
+        case STORED -> true;
+        case DEFLATE -> false;
+        case AUTO -> Compressibility.isIncompressible(data, 0, length);
+        };
+        if (!store) {
+            var deflater = new Deflater(compression.level());
+            var deflated = new ByteArrayOutputStream(length / 2);
+            try (var dos = new DeflaterOutputStream(deflated, deflater)) {
+                dos.write(data, 0, length);
+            } finally {
+                deflater.end();
+            }
+            if (compression.codec() != CompressionCodec.AUTO || deflated.size() <= length) {
+                deflated.writeTo(os);
+                return;
+            }
+        }
+        os.write(STORED_MARKER);
+        os.write(data, 0, length);
+    }
+
+    long sizeOf(String hash) throws IOException {
+        return Files.size(this.pathOf(hash));
+    }
+
+    InputStream open(String hash) throws IOException {
+        var is = new PushbackInputStream(Files.newInputStream(this.pathOf(hash)));
+        int first = is.read();
+        if (first == STORED_MARKER) {
+            return is;
+        } else if (first != -1) {
+            is.unread(first);
+        }
+        return new InflaterInputStream(is);
+    }
+
+    /**
+     * Deletes all chunks which are not in the given set of referenced hashes,
+     * as well as leftovers of interrupted writes. Pinned chunks and those
+     * modified within the grace period before the given start of the garbage
+     * collection are kept, since their manifests may not have been written yet.
+     * Returns the number of deleted files.
+     *
+     * @param startedAt Time in milliseconds before the manifests were read.
+     */
+    int collectGarbage(Set<String> referenced, long startedAt) throws IOException {
+        if (!Files.isDirectory(this.root)) {
+            return 0;
+        }
+        var threshold = FileTime.fromMillis(startedAt - GRACE_PERIOD_MS);
+        int deleted = 0;
+        this.pins.lock.writeLock().lock();
+        try (var paths = Files.walk(this.root)) {
+            Set<String> pinned;
+            synchronized (this.pins.counts) {
+                pinned = new HashSet<>(this.pins.counts.keySet());
+            }
+            for (var path : paths.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                var name = path.getFileName().toString();
+                if (!referenced.contains(name) && !pinned.contains(name)
+                        && Files.getLastModifiedTime(path).compareTo(threshold) < 0 && Files.deleteIfExists(path)) {
+                    ++deleted;
+                }
+            }
+        } finally {
+            this.pins.lock.writeLock().unlock();
+        }
+        return deleted;
+    }
+}
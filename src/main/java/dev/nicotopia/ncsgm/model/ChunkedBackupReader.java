@@ -0,0 +1,98 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+class ChunkedBackupReader implements BackupReader {
+    private final ChunkStore chunkStore;
+    private final List<BackupEntry> entries = new LinkedList<>();
+    private final Map<String, JSONArray> chunks = new HashMap<>();
+
+    ChunkedBackupReader(JSONObject manifest, ChunkStore chunkStore) {
+        this.chunkStore = chunkStore;
+        for (var o : manifest.getJSONArray("entries")) {
+            var json = (JSONObject) o;
+            var name = json.getString("name");
+            var directory = name.endsWith("/");
+            this.entries.add(new BackupEntry(name, directory, json.optLong("size", directory ? 0 : -1),
+                    json.optLong("crc", directory ? 0 : -1), json.optLong("lastModified", -1)));
+            if (!directory) {
+                this.chunks.put(name, json.getJSONArray("chunks"));
+            }
+        }
+    }
+
+    @Override
+    public List<BackupEntry> getEntries() {
+        return this.entries;
+    }
+
+    JSONArray getChunks(BackupEntry entry) throws FileNotFoundException {
+        var hashes = this.chunks.get(entry.name());
+        if (hashes == null) {
+            throw new FileNotFoundException(entry.name());
+        }
+        return hashes;
+    }
+
+    @Override
+    public InputStream getInputStream(BackupEntry entry) throws IOException {
+        var hashes = this.getChunks(entry);
+        return new InputStream() {
+            private int next = 0;
+            private InputStream current = null;
+
+            private boolean advance() throws IOException {
+                if (this.current != null) {
+                    this.current.close();
+                    this.current = null;
+                }
+                if (this.next < hashes.length()) {
+                    this.current = ChunkedBackupReader.this.chunkStore.open(hashes.getString(this.next++));
+                }
+                return this.current != null;
+            }
+
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return this.read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) {
+                    return 0;
+                }
+                while (this.current != null || this.advance()) {
+                    int read = this.current.read(b, off, len);
+                    if (read != -1) {
+                        return read;
+                    }
+                    this.advance();
+                }
+                return -1;
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (this.current != null) {
+                    this.current.close();
+                }
+                this.next = hashes.length();
+            }
+        };
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,218 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Splits file contents into content defined chunks using a gear rolling hash,
+ * so that an insertion only changes the chunks around it, and records them in
+ * a JSON manifest.
+ */
+class ChunkedBackupWriter implements BackupWriter {
+    private static final int MIN_CHUNK_SIZE = 64 * 1024;
+    private static final int MAX_CHUNK_SIZE = 2 * 1024 * 1024;
+    // 19 bits, i.e. a boundary every 512 KiB on average after the minimum size.
+    private static final long BOUNDARY_MASK = 0xFFFFE00000000000L;
+    private static final long[] GEAR = new long[256];
+
+    static {
+        long seed = 0x6E6353474D4C6F67L;
+        for (int i = 0; i < GEAR.length; ++i) {
+            long z = (seed += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            GEAR[i] = z ^ (z >>> 31);
+        }
+    }
+
+    private final File manifestFile;
+    private final ChunkStore chunkStore;
+    private final Configuration.Compression compression;
+    private final JSONObject manifest;
+    private final JSONArray entries = new JSONArray();
+    private final Map<String, Long> storedChunkSizes = new HashMap<>();
+    private final byte[] chunk = new byte[MAX_CHUNK_SIZE];
+
+    /**
+     * Chunks and stores the data written to it. Each instance is confined to a
+     * single thread, but several instances can store chunks concurrently.
+     */
+    private class ChunkingOutputStream extends OutputStream {
+        private final String name;
+        private final long lastModified;
+        private final byte[] chunk;
+        private final MessageDigest digest = FileIndex.newDigest();
+        private final CRC32 crc = new CRC32();
+        private final JSONArray chunks = new JSONArray();
+        private final Map<String, Long> chunkSizes = new HashMap<>();
+        private long size = 0;
+        private int length = 0;
+        private long hash = 0;
+
+        ChunkingOutputStream(String name, long lastModified, byte[] chunk) throws IOException {
+            this.name = name;
+            this.lastModified = lastModified;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            this.write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            this.crc.update(b, off, len);
+            this.size += len;
+            for (int i = off; i < off + len; ++i) {
+                this.chunk[this.length++] = b[i];
+                this.hash = (this.hash << 1) + GEAR[b[i] & 0xFF];
+                if (this.length == MAX_CHUNK_SIZE
+                        || (MIN_CHUNK_SIZE <= this.length && (this.hash & BOUNDARY_MASK) == 0)) {
+                    this.flushChunk();
+                }
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            if (this.length != 0) {
+                this.digest.update(this.chunk, 0, this.length);
+                var hash = this.digest.digest();
+                var hex = HexFormat.of().formatHex(hash);
+                if (!this.chunkSizes.containsKey(hex)) {
+                    var writer = ChunkedBackupWriter.this;
+                    this.chunkSizes.put(hex, writer.chunkStore.put(hash, this.chunk, this.length, writer.compression));
+                }
+                this.chunks.put(hex);
+                this.length = 0;
+                this.hash = 0;
+            }
+        }
+
+        /**
+         * Stores the last chunk and returns the manifest entry of the file.
+         */
+        JSONObject finish() throws IOException {
+            this.flushChunk();
+            return new JSONObject().put("name", this.name).put("size", this.size).put("crc", this.crc.getValue())
+                    .put("lastModified", this.lastModified).put("chunks", this.chunks);
+        }
+    }
+
+    private record Prepared(JSONObject entry, Map<String, Long> chunkSizes, String hash) implements PreparedFile {
+        @Override
+        public String getHash() {
+            return this.hash;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    ChunkedBackupWriter(File manifestFile, ChunkStore chunkStore, Configuration.Compression compression,
+            JSONObject header) {
+        this.manifestFile = manifestFile;
+        this.chunkStore = chunkStore;
+        this.compression = compression;
+        this.manifest = header;
+    }
+
+    private void putEntry(JSONObject entry, Map<String, Long> chunkSizes) {
+        this.entries.put(entry);
+        this.storedChunkSizes.putAll(chunkSizes);
+    }
+
+    @Override
+    public void putDirectory(String name, long lastModified) throws IOException {
+        this.entries.put(new JSONObject().put("name", name).put("lastModified", lastModified));
+    }
+
+    @Override
+    public String putFile(String name, File file, long lastModified, IntConsumer onProgress) throws IOException {
+        var prepared = this.chunkFile(name, file, lastModified, this.chunk, onProgress);
+        this.putPrepared(prepared);
+        return prepared.getHash();
+    }
+
+    @Override
+    public PreparedFile prepareFile(String name, File file, long lastModified, IntConsumer onProgress)
+            throws IOException {
+        return this.chunkFile(name, file, lastModified, new byte[MAX_CHUNK_SIZE], onProgress);
+    }
+
+    private Prepared chunkFile(String name, File file, long lastModified, byte[] chunk, IntConsumer onProgress)
+            throws IOException {
+        var fileDigest = FileIndex.newDigest();
+        var buffer = new byte[64 * 1024];
+        var os = new ChunkingOutputStream(name, lastModified, chunk);
+        try (var is = new FileInputStream(file)) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                fileDigest.update(buffer, 0, read);
+                os.write(buffer, 0, read);
+                onProgress.accept(read);
+            }
+        }
+        return new Prepared(os.finish(), os.chunkSizes, HexFormat.of().formatHex(fileDigest.digest()));
+    }
+
+    @Override
+    public void putPrepared(PreparedFile file) {
+        var prepared = (Prepared) file;
+        this.putEntry(prepared.entry(), prepared.chunkSizes());
+    }
+
+    @Override
+    public void putCopy(BackupReader source, BackupEntry entry) throws IOException {
+        if (!(source instanceof ChunkedBackupReader chunkedSource)) {
+            throw new IllegalArgumentException("Entries can only be copied from backups of the same format.");
+        }
+        var chunks = chunkedSource.getChunks(entry);
+        for (int i = 0; i < chunks.length(); ++i) {
+            var hex = chunks.getString(i);
+            if (!this.storedChunkSizes.containsKey(hex)) {
+                this.storedChunkSizes.put(hex, this.chunkStore.pinExisting(hex));
+            }
+        }
+        this.entries.put(new JSONObject().put("name", entry.name()).put("size", entry.size())
+                .put("crc", entry.crc()).put("lastModified", entry.lastModified()).put("chunks", chunks));
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return this.chunkStore.getBytesWritten() + this.manifestFile.length();
+    }
+
+    /**
+     * Writes the manifest and releases the chunks, which the garbage collection
+     * keeps until then.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            this.manifest.put("storedSize",
+                    this.storedChunkSizes.values().stream().mapToLong(Long::longValue).sum());
+            this.manifest.put("entries", this.entries);
+            var tmp = this.manifestFile.toPath().resolveSibling(this.manifestFile.getName() + ".tmp");
+            Files.writeString(tmp, this.manifest.toString(), StandardCharsets.UTF_8);
+            Files.move(tmp, this.manifestFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            this.chunkStore.release();
+        }
+    }
+}
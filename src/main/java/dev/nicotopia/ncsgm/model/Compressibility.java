@@ -0,0 +1,69 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Estimates whether data is worth deflating from the byte entropy of samples
+ * of it. Compressed or encrypted data comes close to 8 bits per byte.
+ */
+final class Compressibility {
+    private static final int SAMPLE_SIZE = 16 * 1024;
+    // Below this the entropy estimate is too low to tell, small data is simply deflated.
+    private static final int MIN_SAMPLE_SIZE = 4 * 1024;
+    private static final double INCOMPRESSIBLE_BITS_PER_BYTE = 7.5;
+
+    private Compressibility() {
+    }
+
+    static boolean isIncompressible(byte[] data, int off, int len) {
+        var counts = new long[256];
+        for (int i = off; i < off + len; ++i) {
+            ++counts[data[i] & 0xFF];
+        }
+        return isIncompressible(counts, len);
+    }
+
+    /**
+     * Samples the beginning, the middle and the end of the file, so that a
+     * small uncompressed header does not hide a compressed body.
+     */
+    static boolean isIncompressible(File file) throws IOException {
+        var counts = new long[256];
+        var sample = new byte[SAMPLE_SIZE];
+        long total = 0;
+        try (var raf = new RandomAccessFile(file, "r")) {
+            long length = raf.length();
+            long[] offsets = length <= 3 * SAMPLE_SIZE ? new long[] { 0 }
+                    : new long[] { 0, (length - SAMPLE_SIZE) / 2, length - SAMPLE_SIZE };
+            for (long offset : offsets) {
+                raf.seek(offset);
+                int read;
+                int remaining = (int) (offsets.length == 1 ? length : SAMPLE_SIZE);
+                while (0 < remaining && (read = raf.read(sample, 0, Math.min(sample.length, remaining))) != -1) {
+                    for (int i = 0; i < read; ++i) {
+                        ++counts[sample[i] & 0xFF];
+                    }
+                    total += read;
+                    remaining -= read;
+                }
+            }
+        }
+        return isIncompressible(counts, total);
+    }
+
+    private static boolean isIncompressible(long[] counts, long total) {
+        if (total < MIN_SAMPLE_SIZE) {
+            return false;
+        }
+        double bits = 0;
+        for (long count : counts) {
+            if (count != 0) {
+                double p = (double) count / total;
+                bits -= p * Math.log(p);
+            }
+        }
+        return INCOMPRESSIBLE_BITS_PER_BYTE <= bits / Math.log(2);
+    }
+}
@@ -0,0 +1,15 @@
+package dev.nicotopia.ncsgm.model;
+
+/**
+ * How the contents of backed up files are compressed. STORED keeps them as
+ * they are, DEFLATE always deflates them and AUTO stores data which looks
+ * incompressible, e.g. save files which are compressed already, and deflates
+ * everything else.
+ */
+public enum CompressionCodec {
+    STORED, DEFLATE, AUTO;
+
+    public static CompressionCodec fromJson(String value) {
+        return value == null ? DEFLATE : CompressionCodec.valueOf(value.toUpperCase());
+    }
+}
@@ -1,18 +1,105 @@
 package dev.nicotopia.ncsgm.model;
 
-import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.stream.StreamSupport;
+import java.util.zip.Deflater;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-public record Configuration(String name, Path pathToWatch, Path backupFolder) {
+public record Configuration(String name, Path pathToWatch, Path backupFolder, Debounce debounce,
+        BackupFormat format, Compression compression, int compressionThreads, Retention retention,
+        Profiles profiles) {
+    public record Debounce(long quietPeriodMs, long maxDelayMs) {
+        public static final Debounce DEFAULT = new Debounce(2000, 30000);
+
+        private static Debounce fromJson(JSONObject json) {
+            return json == null ? DEFAULT
+                    : new Debounce(json.optLong("quietPeriodMs", DEFAULT.quietPeriodMs()),
+                            json.optLong("maxDelayMs", DEFAULT.maxDelayMs()));
+        }
+    }
+
+    /**
+     * Codec and deflate level, where a level of -1 means the deflate default.
+     */
+    public record Compression(CompressionCodec codec, int level) {
+        public static final Compression DEFAULT = new Compression(CompressionCodec.DEFLATE,
+                Deflater.DEFAULT_COMPRESSION);
+
+        public Compression {
+            if (level < Deflater.DEFAULT_COMPRESSION || Deflater.BEST_COMPRESSION < level) {
+                throw new IllegalArgumentException("Invalid compression level " + level);
+            }
+        }
+
+        private static Compression fromJson(JSONObject json) {
+            return json == null ? DEFAULT
+                    : new Compression(CompressionCodec.fromJson(json.optString("codec", null)),
+                            json.optInt("level", DEFAULT.level()));
+        }
+    }
+
+    /**
+     * Which automatic backups are kept. Backups older than keepAllHours are
+     * thinned out to the newest one per hour until they are keepHourlyDays old,
+     * then to the newest one per day until they are keepDailyDays old, and are
+     * deleted afterwards. Tiers of zero are skipped, and no backup is deleted
+     * because of its age if all of them are. Of the remaining backups, the oldest
+     * are deleted while there are more than maxCount or all backups together
+     * take up more than maxBytes, where zero means no limit.
+     */
+    public record Retention(int maxCount, long maxBytes, int keepAllHours, int keepHourlyDays, int keepDailyDays) {
+        public static final Retention DEFAULT = new Retention(10, 0, 0, 0, 0);
+
+        public Retention {
+            if (maxCount < 0 || maxBytes < 0 || keepAllHours < 0 || keepHourlyDays < 0 || keepDailyDays < 0) {
+                throw new IllegalArgumentException("Negative retention setting");
+            }
+        }
+
+        private static Retention fromJson(JSONObject json) {
+            return json == null ? DEFAULT
+                    : new Retention(json.optInt("maxCount", DEFAULT.maxCount()),
+                            json.optLong("maxBytes", DEFAULT.maxBytes()),
+                            json.optInt("keepAllHours", DEFAULT.keepAllHours()),
+                            json.optInt("keepHourlyDays", DEFAULT.keepHourlyDays()),
+                            json.optInt("keepDailyDays", DEFAULT.keepDailyDays()));
+        }
+
+        /**
+         * Returns whether backups are thinned out by age.
+         */
+        public boolean hasBuckets() {
+            return 0 < this.keepAllHours || 0 < this.keepHourlyDays || 0 < this.keepDailyDays;
+        }
+
+        public Retention withMaxCount(int maxCount) {
+            return new Retention(maxCount, this.maxBytes, this.keepAllHours, this.keepHourlyDays,
+                    this.keepDailyDays);
+        }
+    }
+
+    /**
+     * Pattern the path to watch was resolved from if it contains wildcards. Every
+     * match is a profile of its own, whose backups are kept in a subfolder of
+     * the given backup folder named after the wildcard matches. Only the
+     * backups of the legacy match, if any, stay in the backup folder itself.
+     *
+     * @param legacyMatch The profile earlier versions watched, see
+     *                    {@link PathGlob#getLegacyMatch()}, if the backup
+     *                    folder still holds its backups, or null.
+     */
+    public record Profiles(PathGlob pathToWatch, Path backupFolder, Path legacyMatch) {
+    }
+
     public static Map<String, Configuration> loadFromJsonResource(String resourcePath) throws IOException {
         JSONArray json;
         try (var is = Configuration.class.getResourceAsStream(resourcePath)) {
@@ -25,21 +112,119 @@ public record Configuration(String name, Path pathToWatch, Path backupFolder) {
                 .collect(HashMap::new, (m, c) -> m.put(c.name(), c), HashMap::putAll);
     }
 
-    private static Path parse(String pathStr) {
-        pathStr = pathStr.replace("${home}", System.getProperty("user.home"));
-        Path path = null;
-        int pos = -1;
-        while ((pos = pathStr.indexOf("*/")) != -1) {
-            var next = pathStr.substring(0, pos);
-            path = path == null ? Path.of(next) : next.isEmpty() ? path : path.resolve(next);
-            var children = path.toFile().list((dir, name) -> new File(dir, name).isDirectory());
-            path = path.resolve(children != null && children.length != 0 ? children[0] : "unknown");
-            pathStr = pathStr.substring(pos + 2);
+    private static String substitute(String pathStr) {
+        return pathStr.replace("${home}", System.getProperty("user.home"));
+    }
+
+    private static Profiles parseProfiles(JSONObject json) {
+        var pathToWatch = substitute(json.getString("pathToWatch"));
+        if (!PathGlob.isWildcard(pathToWatch)) {
+            return null;
         }
-        return path == null ? Path.of(pathStr) : pathStr.isEmpty() ? path : path.resolve(pathStr);
+        var glob = PathGlob.of(pathToWatch);
+        var backupFolder = Path.of(substitute(json.getString("backupFolder")));
+        return new Profiles(glob, backupFolder, findLegacyMatch(glob, backupFolder));
+    }
+
+    /**
+     * Earlier versions only watched one profile and kept its backups in the
+     * backup folder itself. Returns that profile if the backup folder still
+     * holds backups and the profile has no subfolder yet, so that its backups
+     * are kept where they are. Null otherwise.
+     */
+    private static Path findLegacyMatch(PathGlob glob, Path backupFolder) {
+        var backups = backupFolder.toFile().list((dir, name) -> BackupFormat.ofFileName(name).isPresent());
+        if (backups == null || backups.length == 0) {
+            return null;
+        }
+        var match = glob.getLegacyMatch();
+        return match != null && !Files.isDirectory(backupFolder.resolve(getProfileName(glob, match))) ? match
+                : null;
+    }
+
+    public Configuration(String name, Path pathToWatch, Path backupFolder) {
+        this(name, pathToWatch, backupFolder, Debounce.DEFAULT, BackupFormat.ZIP, Compression.DEFAULT, 0);
+    }
+
+    public Configuration(String name, Path pathToWatch, Path backupFolder, Debounce debounce, BackupFormat format,
+            Compression compression, int compressionThreads) {
+        this(name, pathToWatch, backupFolder, debounce, format, compression, compressionThreads, Retention.DEFAULT,
+                null);
     }
 
     public Configuration(JSONObject json) {
-        this(json.getString("name"), parse(json.getString("pathToWatch")), parse(json.getString("backupFolder")));
+        this(json, parseProfiles(json));
+    }
+
+    /**
+     * Uses the first profile if the path to watch contains wildcards.
+     */
+    private Configuration(JSONObject json, Profiles profiles) {
+        this(json.getString("name"),
+                profiles != null ? profiles.pathToWatch().getFirstMatch()
+                        : Path.of(substitute(json.getString("pathToWatch"))),
+                profiles != null ? getProfileFolder(profiles, profiles.pathToWatch().getFirstMatch())
+                        : Path.of(substitute(json.getString("backupFolder"))),
+                Debounce.fromJson(json.optJSONObject("debounce")),
+                BackupFormat.fromJson(json.optString("format", null)),
+                Compression.fromJson(json.optJSONObject("compression")), json.optInt("compressionThreads", 0),
+                Retention.fromJson(json.optJSONObject("retention")), profiles);
+    }
+
+    private static Path getProfileFolder(Profiles profiles, Path match) {
+        return match.equals(profiles.legacyMatch()) ? profiles.backupFolder()
+                : profiles.backupFolder().resolve(getProfileName(profiles.pathToWatch(), match));
+    }
+
+    private static String getProfileName(PathGlob glob, Path match) {
+        return String.join(" ", glob.getCaptures(match));
+    }
+
+    /**
+     * Returns the name of the profile this configuration watches, or null if it
+     * has no profiles.
+     */
+    public String getProfileName() {
+        return this.profiles == null ? null : getProfileName(this.profiles.pathToWatch(), this.pathToWatch);
+    }
+
+    /**
+     * Returns this configuration for the given match of its profiles.
+     */
+    public Configuration forProfile(Path match) {
+        var name = String.format("%s (%s)", this.name, getProfileName(this.profiles.pathToWatch(), match));
+        return new Configuration(name, match, getProfileFolder(this.profiles, match), this.debounce, this.format,
+                this.compression, this.compressionThreads, this.retention, this.profiles);
+    }
+
+    /**
+     * Returns one configuration per current profile, or just this one if the
+     * path to watch contains no wildcards.
+     */
+    public List<Configuration> getProfileConfigurations() {
+        return this.profiles == null ? List.of(this)
+                : this.profiles.pathToWatch().getMatches().stream().map(this::forProfile).toList();
+    }
+
+    /**
+     * Returns the number of threads used to compress a backup, where a setting of
+     * zero or less means one per available processor.
+     */
+    public int getEffectiveCompressionThreads() {
+        return 0 < this.compressionThreads ? this.compressionThreads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Returns this configuration with the given paths, which no longer resolves
+     * any profiles.
+     */
+    public Configuration withPaths(Path pathToWatch, Path backupFolder) {
+        return new Configuration(this.name, pathToWatch, backupFolder, this.debounce, this.format,
+                this.compression, this.compressionThreads, this.retention, null);
+    }
+
+    public Configuration withRetention(Retention retention) {
+        return new Configuration(this.name, this.pathToWatch, this.backupFolder, this.debounce, this.format,
+                this.compression, this.compressionThreads, retention, this.profiles);
     }
 }
@@ -0,0 +1,156 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Size, modification time and SHA-256 of every file in the latest backup of a
+ * watched folder. Persisted in the backup folder so that the next backup can
+ * tell unchanged files apart without reading them.
+ */
+class FileIndex {
+    record Record(long size, long lastModified, String hash) {
+    }
+
+    private static final String FILE_NAME = ".index.json";
+
+    private final String pathToWatch;
+    private final String timestamp;
+    private final BackupFormat format;
+    private final Map<String, Record> records = new HashMap<>();
+
+    FileIndex(Path pathToWatch, String timestamp, BackupFormat format) {
+        this.pathToWatch = pathToWatch.toAbsolutePath().toString();
+        this.timestamp = timestamp;
+        this.format = format;
+    }
+
+    static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    static Optional<FileIndex> load(Path backupFolder, Path pathToWatch) {
+        var file = backupFolder.resolve(FILE_NAME);
+        if (!Files.isRegularFile(file)) {
+            return Optional.empty();
+        }
+        try {
+            var json = new JSONObject(Files.readString(file, StandardCharsets.UTF_8));
+            var index = new FileIndex(pathToWatch, json.getString("timestamp"),
+                    BackupFormat.valueOf(json.getString("format")));
+            if (!index.pathToWatch.equals(json.getString("pathToWatch"))) {
+                return Optional.empty();
+            }
+            var files = json.getJSONObject("files");
+            for (var name : files.keySet()) {
+                var record = files.getJSONObject(name);
+                index.records.put(name, new Record(record.getLong("size"), record.getLong("lastModified"),
+                        record.getString("hash")));
+            }
+            return Optional.of(index);
+        } catch (IOException | JSONException | IllegalArgumentException ex) {
+            return Optional.empty();
+        }
+    }
+
+    void save(Path backupFolder) throws IOException {
+        var files = new JSONObject();
+        this.records.forEach((name, record) -> files.put(name, new JSONObject().put("size", record.size())
+                .put("lastModified", record.lastModified()).put("hash", record.hash())));
+        var json = new JSONObject().put("pathToWatch", this.pathToWatch).put("timestamp", this.timestamp)
+                .put("format", this.format.name()).put("files", files);
+        var tmp = backupFolder.resolve(FILE_NAME + ".tmp");
+        Files.writeString(tmp, json.toString(), StandardCharsets.UTF_8);
+        Files.move(tmp, backupFolder.resolve(FILE_NAME), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Returns whether the files in the given folder have the same names and
+     * contents as recorded, regardless of their modification times and of the
+     * directories. The sizes are compared first, files whose modification time
+     * differs are only hashed if all sizes matched.
+     */
+    boolean matches(Path folder, BackupJob<?> job) throws IOException {
+        var rootName = folder.getFileName().toString();
+        var touched = new ArrayList<Path>();
+        var touchedRecords = new ArrayList<Record>();
+        var visitor = new SimpleFileVisitor<Path>() {
+            int count = 0;
+            boolean differs = false;
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                job.checkCancelled();
+                var relative = folder.relativize(file).toString();
+                var record = FileIndex.this.records
+                        .get(rootName + "/" + relative.replace(file.getFileSystem().getSeparator(), "/"));
+                if (record == null || record.size() != attrs.size()) {
+                    this.differs = true;
+                    return FileVisitResult.TERMINATE;
+                } else if (record.lastModified() != attrs.lastModifiedTime().toMillis()) {
+                    touched.add(file);
+                    touchedRecords.add(record);
+                }
+                ++this.count;
+                return FileVisitResult.CONTINUE;
+            }
+        };
+        Files.walkFileTree(folder, visitor);
+        if (visitor.differs || visitor.count != this.records.size()) {
+            return false;
+        }
+        var digest = newDigest();
+        var buffer = new byte[64 * 1024];
+        for (int i = 0; i < touched.size(); ++i) {
+            try (InputStream is = Files.newInputStream(touched.get(i))) {
+                int read;
+                while ((read = is.read(buffer)) != -1) {
+                    digest.update(buffer, 0, read);
+                    job.checkCancelled();
+                }
+            }
+            if (!HexFormat.of().formatHex(digest.digest()).equals(touchedRecords.get(i).hash())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    String getTimestamp() {
+        return this.timestamp;
+    }
+
+    BackupFormat getFormat() {
+        return this.format;
+    }
+
+    Record get(String name) {
+        return this.records.get(name);
+    }
+
+    void put(String name, Record record) {
+        this.records.put(name, record);
+    }
+}
@@ -2,207 +2,928 @@ package dev.nicotopia.ncsgm.model;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
-import java.io.BufferedOutputStream;
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Arrays;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
 import java.util.function.Supplier;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.regex.Pattern;
 
 import javax.swing.ListModel;
-import javax.swing.event.ListDataEvent;
+import javax.swing.SwingUtilities;
 import javax.swing.event.ListDataListener;
 
 public class FolderBackupManager implements ListModel<Backup>, PropertyChangeListener {
+    /**
+     * First part of a job, run on the capture lane.
+     */
+    @FunctionalInterface
+    private interface Stage<S> {
+        S run(BackupJob<?> job) throws Exception;
+    }
+
+    /**
+     * Second part of a job, run on the backup worker with the result of the
+     * first part.
+     */
+    @FunctionalInterface
+    private interface StagedTask<S, T> {
+        T run(BackupJob<T> job, S staged) throws Exception;
+    }
+
+    /**
+     * A new backup whose folder has been captured but not written yet, or the
+     * latest backup if the folder has not changed since.
+     */
+    private class StagedBackup implements Closeable {
+        private final Backup backup;
+        private final String timestamp;
+        private final SnapshotCapture capture;
+        private final long beg;
+        private final long captureMillis;
+        // Whether the folder has been compared with the latest backup already.
+        private final boolean compared;
+
+        StagedBackup(Backup latest) {
+            this(latest, null, null, 0, 0, true);
+        }
+
+        StagedBackup(Backup backup, String timestamp, SnapshotCapture capture, long beg, long captureMillis,
+                boolean compared) {
+            this.backup = backup;
+            this.timestamp = timestamp;
+            this.capture = capture;
+            this.beg = beg;
+            this.captureMillis = captureMillis;
+            this.compared = compared;
+            if (capture != null) {
+                FolderBackupManager.this.pendingWrites.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.capture != null) {
+                FolderBackupManager.this.pendingWrites.decrementAndGet();
+                this.capture.close();
+            }
+        }
+    }
+
     public static class RenameFailedException extends Exception {
         RenameFailedException(String s) {
             super(s);
         }
     }
 
-    private static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final long PARALLEL_THRESHOLD = 16 * 1024 * 1024;
+    private static final long THUMBNAIL_CACHE_BUDGET = 32 * 1024 * 1024;
+    private static final int SCAN_THREADS = 4;
+    private static final int SCAN_BATCH_SIZE = 32;
+    private static final long SCAN_BATCH_INTERVAL_MS = 100;
+    static final DateTimeFormatter TIMESTAMP_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd_HH-mm-ss");
     private static final String TIMESTAMP_REGEX = "\\d{4}-\\d{2}-\\d{2}_\\d{2}-\\d{2}-\\d{2}";
+    private static final Metrics.Counter BACKUPS_CREATED = Metrics.counter("backup.created");
+    private static final Metrics.Counter BACKUPS_SKIPPED = Metrics.counter("backup.skipped");
+    private static final Metrics.Counter BACKUPS_PRUNED = Metrics.counter("backup.pruned");
+    private static final Metrics.Counter BYTES_READ = Metrics.counter("backup.bytesRead");
+    private static final Metrics.Counter BYTES_WRITTEN = Metrics.counter("backup.bytesWritten");
+    private static final Metrics.Histogram BACKUP_DURATION = Metrics.histogram("backup.duration", "ms");
+    private static final Metrics.Histogram CAPTURE_DURATION = Metrics.histogram("backup.captureDuration", "ms");
+    private static final Metrics.Histogram BACKUP_THROUGHPUT = Metrics.histogram("backup.throughput", "KiB/s");
+    private static final Metrics.Histogram DETECTION_LATENCY = Metrics.histogram("backup.detectionLatency", "ms");
+    private static final Metrics.Counter RESTORES = Metrics.counter("restore.count");
+    private static final Metrics.Histogram RESTORE_DURATION = Metrics.histogram("restore.duration", "ms");
+    private static final Metrics.Histogram SCAN_DURATION = Metrics.histogram("scan.duration", "ms");
 
     private final Configuration config;
-    private final String backupNameRegex;
-    private final int maxBackups;
-    private final List<Backup> backups;
-    private final List<ListDataListener> listeners = new LinkedList<>();
+    private final RetentionEngine retention;
+    private final BackupCatalog catalog;
+    private final Executor eventQueue;
+    private final BackupScheduler scheduler;
+    private final boolean ownsScheduler;
+    private final BackupScheduler.Lane worker;
+    private final BackupScheduler.Lane captureLane;
+    private volatile BackupJob<?> currentJob;
+    // Captured backups which have not been written yet.
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+    private final BackupMetadataCache metadataCache;
+    private final ThumbnailCache thumbnailCache;
+    private final BackupJob<Void> scanJob;
+
+    public FolderBackupManager(Configuration config) {
+        this(config, SwingUtilities::invokeLater);
+    }
+
+    /**
+     * @param eventQueue Executor on which the list is modified and all list data
+     *                   events are fired, i.e. the Swing event dispatch thread.
+     */
+    public FolderBackupManager(Configuration config, Executor eventQueue) {
+        // One worker captures the next backup while the other writes the previous one.
+        this(config, eventQueue, new BackupScheduler(2, config.getEffectiveCompressionThreads()), true);
+    }
 
-    public FolderBackupManager(Configuration config, int maxBackups) {
+    /**
+     * Creates a manager whose jobs run in a lane of the given scheduler, which
+     * is shared with other managers.
+     */
+    FolderBackupManager(Configuration config, Executor eventQueue, BackupScheduler scheduler) {
+        this(config, eventQueue, scheduler, false);
+    }
+
+    private FolderBackupManager(Configuration config, Executor eventQueue, BackupScheduler scheduler,
+            boolean ownsScheduler) {
         var backupFolder = config.backupFolder().toFile();
         if (!backupFolder.isDirectory()) {
             throw new IllegalArgumentException("Invalid or non-existent backup folder given: " + backupFolder);
         }
         this.config = config;
-        this.backupNameRegex = String.format("\\Q%s\\E_%s", this.config.pathToWatch().getFileName(), TIMESTAMP_REGEX);
-        this.maxBackups = maxBackups;
-        this.backups = Arrays.stream(backupFolder.listFiles()).map(Backup::createFromExistingFile)
-                .filter(Optional::isPresent).map(Optional::get).sorted().collect(Collectors.toList());
-        this.backups.stream().forEach(b -> b.addPropertyChangeListener(this));
+        this.retention = new RetentionEngine(config.retention());
+        this.catalog = new BackupCatalog(this, eventQueue,
+                Pattern.compile(Pattern.quote(config.pathToWatch().getFileName().toString()) + "_" + TIMESTAMP_REGEX));
+        this.eventQueue = eventQueue;
+        this.scheduler = scheduler;
+        this.ownsScheduler = ownsScheduler;
+        this.worker = scheduler.newLane();
+        this.captureLane = scheduler.newLane();
+        this.captureLane.execute(() -> {
+            try {
+                SnapshotCapture.deleteStaging(config.backupFolder());
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
+        this.metadataCache = BackupMetadataCache.load(config.backupFolder());
+        this.thumbnailCache = new ThumbnailCache(640, 360, THUMBNAIL_CACHE_BUDGET, eventQueue, this.metadataCache);
+        this.scanJob = this.submit("Loading backups", this::scanBackupFolder).whenDone((r, ex) -> {
+            if (ex != null) {
+                ex.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Fills the initially empty list with the backups in the backup folder.
+     * Backups known to the metadata cache are added right away, all other files
+     * are read on a small pool, newest first, and added in batches as they come
+     * in. Runs as the first job on the backup worker, so all later jobs see the
+     * complete list.
+     */
+    private Void scanBackupFolder(BackupJob<Void> job) throws Exception {
+        long beg = System.nanoTime();
+        var fileNames = new HashSet<String>();
+        var known = new ArrayList<Backup>();
+        var unknown = new ArrayList<File>();
+        try (var stream = Files.newDirectoryStream(this.config.backupFolder())) {
+            for (var path : stream) {
+                var file = path.toFile();
+                fileNames.add(file.getName());
+                var metadata = this.metadataCache.get(file);
+                if (metadata.isPresent()) {
+                    Backup.createFromMetadata(file, metadata.get()).ifPresent(known::add);
+                } else if (BackupFormat.ofFileName(file.getName()).isPresent()) {
+                    unknown.add(file);
+                }
+            }
+        }
+        this.addBackups(known);
+        if (!unknown.isEmpty()) {
+            unknown.sort(Comparator.comparingLong(File::lastModified).reversed());
+            job.setBytesTotal(unknown.size());
+            var pool = Executors.newFixedThreadPool(Math.min(SCAN_THREADS, unknown.size()), r -> {
+                var thread = new Thread(r, "Backup scan");
+                thread.setDaemon(true);
+                return thread;
+            });
+            try {
+                var completion = new ExecutorCompletionService<Optional<Backup>>(pool);
+                unknown.forEach(file -> completion.submit(() -> this.loadBackup(file)));
+                var batch = new ArrayList<Backup>();
+                long lastBatch = System.currentTimeMillis();
+                for (int i = 0; i < unknown.size(); ++i) {
+                    job.checkCancelled();
+                    completion.take().get().ifPresent(batch::add);
+                    job.addBytesProcessed(1);
+                    if (SCAN_BATCH_SIZE <= batch.size()
+                            || SCAN_BATCH_INTERVAL_MS <= System.currentTimeMillis() - lastBatch) {
+                        this.addBackups(batch);
+                        batch = new ArrayList<>();
+                        lastBatch = System.currentTimeMillis();
+                    }
+                }
+                this.addBackups(batch);
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        this.metadataCache.retain(fileNames);
+        this.metadataCache.save();
+        SCAN_DURATION.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beg));
+        return null;
+    }
+
+    /**
+     * Merges the given backups into the list on the event queue, see
+     * {@link BackupCatalog#addAll}.
+     */
+    private void addBackups(List<Backup> added) {
+        if (added.isEmpty()) {
+            return;
+        }
+        this.eventQueue.execute(() -> {
+            added.forEach(backup -> backup.addPropertyChangeListener(this));
+            this.catalog.addAll(added);
+        });
+    }
+
+    /**
+     * Creates the backup of the given file from the metadata cache, falling back
+     * to reading the file itself.
+     */
+    private Optional<Backup> loadBackup(File file) {
+        var metadata = this.metadataCache.get(file);
+        if (metadata.isEmpty()) {
+            metadata = Backup.readMetadata(file);
+            metadata.ifPresent(m -> this.metadataCache.put(file, m));
+        }
+        return metadata.flatMap(m -> Backup.createFromMetadata(file, m));
     }
 
     public Configuration getConfiguration() {
         return this.config;
     }
 
-    public int createBackup() throws IOException {
-        String timestamp = TIMESTAMP_FORMATTER.format(LocalDateTime.now());
-        var name = String.format("%s_%s", this.config.pathToWatch().getFileName(), timestamp);
-        var newBackup = Backup.createNew(this.config.backupFolder(), name, timestamp);
-        if (!newBackup.isPresent()) {
-            return -1;
+    public ThumbnailCache getThumbnailCache() {
+        return this.thumbnailCache;
+    }
+
+    /**
+     * Returns the job the backup worker is currently busy with or null if it is
+     * idle.
+     */
+    public BackupJob<?> getCurrentJob() {
+        return this.currentJob;
+    }
+
+    /**
+     * Returns the job which fills the list with the backups found in the backup
+     * folder. Callbacks registered with {@link BackupJob#whenDone} see the
+     * complete list.
+     */
+    public BackupJob<Void> getScanJob() {
+        return this.scanJob;
+    }
+
+    public void shutdown() {
+        var job = this.currentJob;
+        if (job != null) {
+            job.cancel();
         }
-        System.out.printf("Backing up to %s...", newBackup.get());
-        long beg = System.currentTimeMillis();
-        try (ZipOutputStream zos = newBackup.get().getOutputStream()) {
-            this.zip(zos, null, this.config.pathToWatch().toFile());
+        this.captureLane.shutdown();
+        this.worker.shutdown();
+        this.thumbnailCache.shutdown();
+        if (this.ownsScheduler) {
+            this.scheduler.shutdown();
         }
-        this.backups.forEach(backup -> backup.setActive(false));
-        newBackup.get().setActive(true);
-        this.backups.add(newBackup.get());
-        var evt = new ListDataEvent(this, ListDataEvent.INTERVAL_ADDED, this.getSize() - 1, this.getSize() - 1);
-        this.listeners.forEach(l -> l.intervalAdded(evt));
-        this.ensureMaxBackupConstraint();
-        newBackup.get().updateImage();
-        newBackup.get().addPropertyChangeListener(this);
-        System.out.printf("done (%d ms)\n", System.currentTimeMillis() - beg);
-        return this.backups.indexOf(newBackup.get());
     }
 
-    private void zip(ZipOutputStream zos, String baseName, File file) throws IOException {
-        String entryName = (baseName != null ? baseName + "/" : "") + file.getName();
-        if (file.isDirectory()) {
-            ZipEntry entry = new ZipEntry(entryName + "/");
-            zos.putNextEntry(entry);
-            zos.closeEntry();
-            for (File child : file.listFiles()) {
-                zip(zos, entryName, child);
+    /**
+     * Waits for the job running during {@link #shutdown()}, if any, to finish,
+     * e.g. to remove a partially written backup.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        return this.captureLane.awaitTermination(timeout, unit)
+                && this.worker.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    private <T> BackupJob<T> submit(String description, BackupJob.Task<T> task) {
+        var job = new BackupJob<>(description, this.eventQueue, task);
+        this.submit(job);
+        return job;
+    }
+
+    private void submit(BackupJob<?> job) {
+        this.worker.execute(() -> {
+            this.currentJob = job;
+            try {
+                job.run();
+            } finally {
+                this.currentJob = null;
+            }
+        });
+    }
+
+    /**
+     * Runs the stage on the capture lane and then the task with its result on
+     * the backup worker, as one job. Jobs are handed to the backup worker in the
+     * order they were submitted. The result of the stage is closed once the job
+     * is done, whether the task ran or not.
+     */
+    private <S extends Closeable, T> BackupJob<T> submit(String description, Stage<S> stage,
+            StagedTask<S, T> task) {
+        var staged = new CompletableFuture<S>();
+        var job = new BackupJob<T>(description, this.eventQueue, j -> {
+            try {
+                return task.run(j, staged.join());
+            } catch (CompletionException ex) {
+                throw ex.getCause() instanceof Exception cause ? cause : ex;
             }
-        } else {
-            ZipEntry entry = new ZipEntry(entryName);
-            zos.putNextEntry(entry);
-            try (FileInputStream fis = new FileInputStream(file)) {
-                zos.write(fis.readAllBytes());
+        });
+        job.getFuture().whenComplete((r, ex) -> staged.thenAccept(s -> {
+            try {
+                if (s != null) {
+                    s.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
             }
-            zos.closeEntry();
-        }
+        }));
+        this.captureLane.execute(() -> {
+            // The job the backup worker is busy with, if any, stays the current one.
+            boolean current = this.currentJob == null;
+            if (current) {
+                this.currentJob = job;
+            }
+            try {
+                job.checkCancelled();
+                staged.complete(stage.run(job));
+            } catch (Exception ex) {
+                staged.completeExceptionally(ex);
+            } finally {
+                if (current && this.currentJob == job) {
+                    this.currentJob = null;
+                }
+            }
+            try {
+                this.submit(job);
+            } catch (RejectedExecutionException ex) {
+                // Shut down meanwhile, the job only completes as cancelled.
+                job.cancel();
+                job.run();
+            }
+        });
+        return job;
     }
 
-    public void restoreBackup(int idx) throws IOException {
-        if (idx < 0 || this.backups.size() <= idx) {
-            throw new IllegalArgumentException("Invalid backup index.");
-        }
-        var backup = this.backups.get(idx);
-        var beg = System.currentTimeMillis();
-        System.out.printf("Now restoring %s...", backup);
-        this.deleteContents(this.config.pathToWatch().toFile());
-        try (var zipFile = backup.getZipFile()) {
-            var entries = zipFile.entries();
-            while (entries.hasMoreElements()) {
-                var entry = entries.nextElement();
-                File file = this.config.pathToWatch().getParent().resolve(entry.getName()).toFile();
-                if (!entry.isDirectory()) {
-                    try (BufferedOutputStream bos = new BufferedOutputStream(new FileOutputStream(file));
-                            var is = zipFile.getInputStream(entry)) {
-                        bos.write(is.readAllBytes());
+    /**
+     * Runs the given runnable on the event queue and waits for it to finish. Must
+     * only be called from the backup worker.
+     */
+    private void runOnEventQueue(Runnable r) {
+        var done = new CompletableFuture<Void>();
+        this.eventQueue.execute(() -> {
+            try {
+                r.run();
+                done.complete(null);
+            } catch (RuntimeException ex) {
+                done.completeExceptionally(ex);
+            }
+        });
+        done.join();
+    }
+
+    /**
+     * Queues the creation of a new backup. The job's result is the list index of
+     * the new backup or -1 if a backup with the same name already exists.
+     */
+    public BackupJob<Integer> createBackup() {
+        return this.createBackup(-1);
+    }
+
+    /**
+     * Like {@link #createBackup()}, for a change of the watched folder first seen
+     * at the given time in milliseconds, from which the detection latency is
+     * measured. A time of -1 means the backup was not triggered by a change.
+     * The watched folder is captured into the staging area first, which is all
+     * the time it has to stay unchanged. The backup is then written from the
+     * capture while the next one can already be captured. If the files have
+     * the same contents as those of the latest backup, no backup is created and
+     * the latest one becomes the active one, its index is the job's result.
+     */
+    public BackupJob<Integer> createBackup(long changedAt) {
+        return this.submit("Backup", job -> {
+            long beg = System.nanoTime();
+            var previousIndex = FileIndex.load(this.config.backupFolder(), this.config.pathToWatch())
+                    .filter(i -> i.getFormat() == this.config.format());
+            var previousBackup = previousIndex.flatMap(i -> this.findBackup(i.getTimestamp()));
+            // A backup which is still being written is newer than the index.
+            boolean compare = previousBackup.isPresent() && this.pendingWrites.get() == 0;
+            if (compare) {
+                synchronized (this.config.pathToWatch()) {
+                    if (previousIndex.get().matches(this.config.pathToWatch(), job)) {
+                        return new StagedBackup(previousBackup.get());
                     }
-                } else if (!file.exists() && !file.mkdirs()) {
-                    throw new IOException("\nFailed to create folder " + entry.getName());
                 }
             }
+            String timestamp = TIMESTAMP_FORMATTER.format(LocalDateTime.now());
+            var name = String.format("%s_%s", this.config.pathToWatch().getFileName(), timestamp);
+            var newBackup = Backup.createNew(this.config.backupFolder(), name, timestamp, this.config.format());
+            if (!newBackup.isPresent()) {
+                return null;
+            }
+            Optional<SnapshotCapture> capture;
+            synchronized (this.config.pathToWatch()) {
+                capture = SnapshotCapture.create(job, this.config.pathToWatch(), this.config.backupFolder(), name,
+                        previousIndex.orElse(null));
+            }
+            long captureMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beg);
+            CAPTURE_DURATION.record(captureMillis);
+            return capture.map(c -> new StagedBackup(newBackup.get(), timestamp, c, beg, captureMillis, compare))
+                    .orElse(null);
+        }, (job, staged) -> staged == null ? -1
+                : staged.capture == null ? this.keepLatestBackup(staged.backup)
+                        : this.writeBackup(job, staged, changedAt));
+    }
+
+    /**
+     * Makes the given latest backup, whose files match those of the watched
+     * folder, the active one instead of creating an identical backup. Returns
+     * its list index.
+     */
+    private int keepLatestBackup(Backup latest) {
+        BACKUPS_SKIPPED.increment();
+        this.log("Nothing changed since %s", latest.getName());
+        int[] idx = { -1 };
+        this.runOnEventQueue(() -> {
+            this.catalog.setActive(latest);
+            idx[0] = this.catalog.indexOf(latest);
+        });
+        return idx[0];
+    }
+
+    private int writeBackup(BackupJob<Integer> job, StagedBackup staged, long changedAt) throws IOException {
+        var newBackup = staged.backup;
+        var root = staged.capture.getRoot();
+        var previousIndex = FileIndex.load(this.config.backupFolder(), this.config.pathToWatch())
+                .filter(i -> i.getFormat() == this.config.format());
+        var previousBackup = previousIndex.flatMap(i -> this.findBackup(i.getTimestamp()));
+        if (!staged.compared && previousBackup.isPresent() && previousIndex.get().matches(root, job)) {
+            return this.keepLatestBackup(previousBackup.get());
+        }
+        var event = new PipelineEvents.BackupCreated();
+        event.begin();
+        var snapshot = TreeSnapshot.of(root);
+        job.setBytesTotal(snapshot.totalSize());
+        var index = new FileIndex(this.config.pathToWatch(), staged.timestamp, this.config.format());
+        var writer = newBackup.openWriter(this.config.compression());
+        int written;
+        int copied;
+        try (writer; var previous = previousBackup.isPresent() ? previousBackup.get().openReader() : null) {
+            var builder = new SnapshotBuilder(job, writer, index, previousIndex.orElse(null), previous,
+                    new byte[COPY_BUFFER_SIZE]);
+            int threads = this.config.getEffectiveCompressionThreads();
+            if (threads < 2 || snapshot.totalSize() < PARALLEL_THRESHOLD) {
+                builder.write(root.toFile());
+            } else {
+                builder.write(root.toFile(), this.scheduler.getCompressionPool(), 2 * threads);
+            }
+            staged.capture.verify();
+            written = builder.getWrittenCount();
+            copied = builder.getCopiedCount();
+        } catch (IOException | RuntimeException ex) {
+            newBackup.deleteFile();
+            this.log("Backing up to %s failed", newBackup.getName());
+            throw ex;
+        }
+        index.save(this.config.backupFolder());
+        var metadata = newBackup.getMetadata();
+        if (metadata != null) {
+            this.metadataCache.put(newBackup.getFile(), metadata);
+            this.metadataCache.save();
+        }
+        newBackup.addPropertyChangeListener(this);
+        this.runOnEventQueue(() -> {
+            this.catalog.addAll(List.of(newBackup));
+            this.catalog.setActive(newBackup);
+        });
+        long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - staged.beg);
+        long latency = changedAt != -1 ? System.currentTimeMillis() - changedAt : -1;
+        BACKUPS_CREATED.increment();
+        BYTES_READ.add(job.getBytesProcessed());
+        BYTES_WRITTEN.add(writer.getBytesWritten());
+        BACKUP_DURATION.record(millis);
+        BACKUP_THROUGHPUT.record(job.getBytesProcessed() * 1000 / 1024 / Math.max(1, millis));
+        if (latency != -1) {
+            DETECTION_LATENCY.record(latency);
+        }
+        event.end();
+        if (event.shouldCommit()) {
+            event.backup = newBackup.getName();
+            event.format = this.config.format().name();
+            event.bytesRead = job.getBytesProcessed();
+            event.bytesWritten = writer.getBytesWritten();
+            event.filesWritten = written;
+            event.filesCopied = copied;
+            event.captureDuration = staged.captureMillis;
+            event.detectionLatency = latency;
+            event.commit();
         }
-        this.backups.forEach(b -> b.setActive(backup == b));
-        System.out.printf("done (%d ms)\n", System.currentTimeMillis() - beg);
+        this.log("Backed up to %s: %d files written, %d copied (%d ms, %d ms captured)", newBackup.getName(),
+                written, copied, millis, staged.captureMillis);
+        // Part of this job, so the retention is applied even if the application exits right after the backup.
+        try {
+            this.deleteUnretained();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        int[] idx = { -1 };
+        this.runOnEventQueue(() -> idx[0] = this.catalog.indexOf(newBackup));
+        return idx[0];
+    }
+
+    /**
+     * Prints one complete line tagged with the name of the configuration, so
+     * that lines of managers sharing the workers do not interleave.
+     */
+    private void log(String format, Object... args) {
+        System.out.printf("[%s] %s\n", this.config.name(), String.format(format, args));
     }
 
-    public boolean deleteBackup(int idx) {
-        var backup = this.backups.remove(idx);
-        backup.removePropertyChangeListener(this);
-        ListDataEvent evt = new ListDataEvent(this, ListDataEvent.INTERVAL_REMOVED, idx, idx);
-        this.listeners.forEach(l -> l.intervalRemoved(evt));
-        return backup.deleteFile();
+    /**
+     * Looks up a backup of this manager by its timestamp. Must only be called
+     * from the backup worker.
+     */
+    private Optional<Backup> findBackup(String timestamp) {
+        List<Optional<Backup>> found = new ArrayList<>(1);
+        this.runOnEventQueue(() -> found.add(this.catalog.findByTimestamp(timestamp)));
+        return found.get(0);
     }
 
-    public void renameBackup(int idx, String newName, Supplier<Boolean> forceOverwriteProvider)
-            throws RenameFailedException {
-        Backup backup = this.backups.get(idx);
-        var existing = IntStream.range(0, this.backups.size())
-                .filter(i -> this.backups.get(i).getName().equalsIgnoreCase(newName)).findAny();
-        if (existing.isPresent()) {
-            if (forceOverwriteProvider == null || !forceOverwriteProvider.get()) {
-                return;
+    /**
+     * Streams is to os through the given buffer so that the heap usage does not
+     * depend on the file sizes. onProgress is called after each chunk.
+     */
+    static void copy(InputStream is, OutputStream os, byte[] buffer, IntConsumer onProgress)
+            throws IOException {
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            os.write(buffer, 0, read);
+            onProgress.accept(read);
+        }
+    }
+
+    /**
+     * Queues the restoration of the backup at the given index. The files which
+     * differ are extracted next to the watched folder and then renamed into it,
+     * the files they replace are kept as undo point, see
+     * {@link SnapshotRestorer}. The watched folder is locked while
+     * restoring, onRestored is run on the backup worker before the lock is
+     * released. The list is only updated afterwards, since the event queue may
+     * be waiting for the lock, e.g. to stop a {@link FolderWatcher}.
+     */
+    public BackupJob<Void> restoreBackup(int idx, Runnable onRestored) {
+        if (idx < 0 || this.catalog.size() <= idx) {
+            throw new IllegalArgumentException("Invalid backup index.");
+        }
+        var backup = this.catalog.get(idx);
+        return this.submit("Restore", job -> {
+            synchronized (this.config.pathToWatch()) {
+                long beg = System.nanoTime();
+                var event = new PipelineEvents.BackupRestored();
+                event.begin();
+                try (var reader = backup.openReader()) {
+                    var restorer = new SnapshotRestorer(job, this.config.pathToWatch(),
+                            this.loadIndex(backup).orElse(null), new byte[COPY_BUFFER_SIZE]);
+                    long total = reader.getEntries().stream().mapToLong(e -> Math.max(0, e.size())).sum();
+                    boolean parallel = 2 <= this.config.getEffectiveCompressionThreads()
+                            && PARALLEL_THRESHOLD <= total;
+                    restorer.restore(reader, parallel ? this.scheduler.getCompressionPool() : null);
+                    event.filesWritten = restorer.getWrittenCount();
+                    event.filesKept = restorer.getKeptCount();
+                }
+                if (onRestored != null) {
+                    onRestored.run();
+                }
+                long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beg);
+                RESTORES.increment();
+                RESTORE_DURATION.record(millis);
+                event.end();
+                if (event.shouldCommit()) {
+                    event.backup = backup.getName();
+                    event.commit();
+                }
+                this.log("Restored %s: %d files written, %d kept (%d ms)", backup.getName(), event.filesWritten,
+                        event.filesKept, millis);
             }
-            if (!this.deleteBackup(existing.getAsInt())) {
-                throw new RenameFailedException("Deletion of previous backup failed.");
+            this.runOnEventQueue(() -> this.catalog.setActive(backup));
+            return null;
+        });
+    }
+
+    /**
+     * Queues the restoration of a single file of the backup at the given index,
+     * see {@link Backup#listEntries()}. Only that file of the watched folder is
+     * replaced, and it is not written at all if it matches the backup already.
+     * Unlike a full restore, this creates no undo point. The watched folder is
+     * locked meanwhile.
+     */
+    public BackupJob<Void> restoreEntry(int idx, BackupEntry entry) {
+        if (idx < 0 || this.catalog.size() <= idx) {
+            throw new IllegalArgumentException("Invalid backup index.");
+        }
+        var backup = this.catalog.get(idx);
+        return this.submit("Restore file", job -> {
+            synchronized (this.config.pathToWatch()) {
+                long beg = System.nanoTime();
+                boolean written;
+                try (var reader = backup.openReader()) {
+                    written = new SnapshotRestorer(job, this.config.pathToWatch(), this.loadIndex(backup).orElse(null),
+                            new byte[COPY_BUFFER_SIZE]).restoreFile(reader, entry);
+                }
+                this.log("Restored %s from %s: %s (%d ms)", entry.name(), backup.getName(),
+                        written ? "written" : "unchanged", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beg));
             }
+            return null;
+        });
+    }
+
+    /**
+     * Queues the comparison of the backup at index from with the one at index
+     * to, see {@link BackupDiff}. Only the central directories or manifests of
+     * the backups are read.
+     */
+    public BackupJob<BackupDiff> compareBackups(int from, int to) {
+        if (from < 0 || this.catalog.size() <= from || to < 0 || this.catalog.size() <= to) {
+            throw new IllegalArgumentException("Invalid backup index.");
         }
-        try {
-            if (!backup.setName(newName)) {
-                throw new RenameFailedException("Rename failed.");
+        var fromBackup = this.catalog.get(from);
+        var toBackup = this.catalog.get(to);
+        return this.submit("Compare", job -> BackupDiff.compare(fromBackup.listEntries(), toBackup.listEntries()));
+    }
+
+    /**
+     * Queues the comparison of the backup at the given index with the current
+     * contents of the watched folder, see {@link BackupDiff}.
+     */
+    public BackupJob<BackupDiff> compareWithLive(int idx) {
+        if (idx < 0 || this.catalog.size() <= idx) {
+            throw new IllegalArgumentException("Invalid backup index.");
+        }
+        var backup = this.catalog.get(idx);
+        return this.submit("Compare", job -> BackupDiff.compare(backup.listEntries(), this.config.pathToWatch(),
+                this.loadIndex(backup).orElse(null), job));
+    }
+
+    /**
+     * Loads the index of the latest backup if it is the given one.
+     */
+    private Optional<FileIndex> loadIndex(Backup backup) {
+        return FileIndex.load(this.config.backupFolder(), this.config.pathToWatch())
+                .filter(i -> i.getFormat() == backup.getFormat() && i.getTimestamp().equals(backup.getTimestamp()));
+    }
+
+    public boolean hasUndoPoint() {
+        return Files.isDirectory(SnapshotRestorer.getUndoPath(this.config.pathToWatch()));
+    }
+
+    /**
+     * Queues putting the files the last restore replaced back. Like a restore, the watched folder is locked meanwhile,
+     * onRestored is run before the lock is released and the list is updated
+     * after.
+     */
+    public BackupJob<Void> undoRestore(Runnable onRestored) {
+        return this.submit("Undo restore", job -> {
+            synchronized (this.config.pathToWatch()) {
+                new SnapshotRestorer(job, this.config.pathToWatch(), null, null).undo();
+                if (onRestored != null) {
+                    onRestored.run();
+                }
             }
-        } catch (InvalidPathException ex) {
-            throw new RenameFailedException(ex.getMessage());
+            this.runOnEventQueue(() -> this.catalog.setActive(null));
+            return null;
+        });
+    }
+
+    /**
+     * Removes the backup at the given index from the list right away and queues
+     * the deletion of its file. Must be called on the event queue.
+     */
+    public BackupJob<Boolean> deleteBackup(int idx) {
+        return this.deleteBackups(List.of(this.catalog.get(idx)), false).get(0);
+    }
+
+    /**
+     * Removes the given backups from the list right away and queues the deletion
+     * of their files. Pruned backups are counted as such once their files are
+     * deleted. Must be called on the event queue.
+     */
+    private List<BackupJob<Boolean>> deleteBackups(List<Backup> deleted, boolean pruned) {
+        var jobs = new ArrayList<BackupJob<Boolean>>(deleted.size());
+        for (var backup : this.removeBackups(deleted)) {
+            jobs.add(this.submit("Delete", job -> {
+                boolean success = this.deleteFile(backup);
+                if (success) {
+                    if (pruned) {
+                        this.countPruned(backup);
+                    }
+                    this.metadataCache.save();
+                    if (backup.getFormat() == BackupFormat.DEDUP) {
+                        this.collectGarbage();
+                    }
+                }
+                return success;
+            }));
+        }
+        return jobs;
+    }
+
+    /**
+     * Removes the given backups from the list, firing one event per run of
+     * adjacent backups, and returns those which were still listed. Must be
+     * called on the event queue.
+     */
+    private List<Backup> removeBackups(List<Backup> removed) {
+        removed = this.catalog.removeAll(removed);
+        for (var backup : removed) {
+            backup.removePropertyChangeListener(this);
+            this.thumbnailCache.invalidate(backup);
         }
+        return removed;
     }
 
-    private boolean isManaged(Backup backup) {
-        return backup.getName().matches(this.backupNameRegex);
+    /**
+     * Deletes the file of the given backup, which is no longer listed, and
+     * forgets its metadata. Must only be called from the backup worker.
+     */
+    private boolean deleteFile(Backup backup) {
+        boolean deleted = backup.deleteFile();
+        if (deleted) {
+            this.metadataCache.remove(backup.getFile());
+        }
+        return deleted;
     }
 
-    private void ensureMaxBackupConstraint() {
-        if (maxBackups < this.backups.stream().filter(this::isManaged).count()) {
-            IntStream.range(0, this.backups.size()).filter(i -> this.isManaged(this.backups.get(i))).findFirst()
-                    .ifPresent(this::deleteBackup);
+    /**
+     * Deletes all chunks no DEDUP manifest in the backup folder refers to
+     * anymore. Every manifest counts, including those of backups which are not
+     * listed, e.g. read-only ones or those of other applications. Nothing is
+     * deleted if any manifest cannot be read. Chunks of backups which are still
+     * being written are kept, see {@link ChunkStore}. Must only be called from
+     * the backup worker.
+     */
+    private void collectGarbage() {
+        long startedAt = System.currentTimeMillis();
+        var referenced = new HashSet<String>();
+        try {
+            var files = this.config.backupFolder().toFile().listFiles();
+            if (files == null) {
+                throw new IOException("Cannot list " + this.config.backupFolder());
+            }
+            for (var file : files) {
+                if (file.isFile() && BackupFormat.ofFileName(file.getName()).orElse(null) == BackupFormat.DEDUP) {
+                    referenced.addAll(Backup.readReferencedChunks(file));
+                }
+            }
+            int deleted = new ChunkStore(this.config.backupFolder()).collectGarbage(referenced, startedAt);
+            if (deleted != 0) {
+                this.log("%d unreferenced chunks deleted", deleted);
+            }
+        } catch (IOException ex) {
+            this.log("Chunk garbage collection skipped");
+            ex.printStackTrace();
         }
     }
 
-    private void deleteContents(File dir) {
-        if (dir.exists()) {
-            for (File c : dir.listFiles()) {
-                if (c.isDirectory()) {
-                    this.deleteContents(c);
+    /**
+     * Queues the renaming of the backup at the given index. If a backup with the
+     * new name exists already, it is only overwritten if forceOverwriteProvider
+     * agrees, otherwise nothing is queued. Must be called on the event queue.
+     */
+    public Optional<BackupJob<Void>> renameBackup(int idx, String newName, Supplier<Boolean> forceOverwriteProvider) {
+        Backup backup = this.catalog.get(idx);
+        var existing = this.catalog.findByName(newName);
+        if (existing.isPresent() && (forceOverwriteProvider == null || !forceOverwriteProvider.get())) {
+            return Optional.empty();
+        }
+        var overwritten = existing.isPresent() ? this.deleteBackups(List.of(existing.get()), false).get(0) : null;
+        return Optional.of(this.submit("Rename", job -> {
+            if (overwritten != null && !overwritten.getFuture().join()) {
+                throw new RenameFailedException("Deletion of previous backup failed.");
+            }
+            try {
+                var oldFile = backup.getFile();
+                if (!backup.setName(newName)) {
+                    throw new RenameFailedException("Rename failed.");
                 }
-                c.delete();
+                this.metadataCache.rename(oldFile, backup.getFile());
+                this.metadataCache.save();
+            } catch (InvalidPathException ex) {
+                throw new RenameFailedException(ex.getMessage());
             }
+            return null;
+        }));
+    }
+
+    /**
+     * Queues a pass which deletes the automatic backups the retention of the
+     * configuration does not keep, see {@link Configuration.Retention}. The
+     * job's result is the number of deleted backups. Also applied by every
+     * backup job once the new backup has been written.
+     */
+    public BackupJob<Integer> applyRetention() {
+        return this.submit("Prune", job -> this.deleteUnretained());
+    }
+
+    /**
+     * Deletes the automatic backups the retention of the configuration does not
+     * keep and returns their number. Must only be called from the backup
+     * worker.
+     */
+    private int deleteUnretained() throws IOException {
+        var backups = new ArrayList<Backup>();
+        var active = new ArrayList<Backup>(1);
+        this.runOnEventQueue(() -> {
+            backups.addAll(this.catalog.getAll());
+            active.add(this.catalog.getActive());
+        });
+        var selected = this.retention.select(backups, this.catalog::isManaged, active.get(0), LocalDateTime.now());
+        if (selected.isEmpty()) {
+            return 0;
+        }
+        var removed = new ArrayList<Backup>(selected.size());
+        this.runOnEventQueue(() -> removed.addAll(this.removeBackups(selected)));
+        int deleted = 0;
+        boolean dedup = false;
+        for (var backup : removed) {
+            if (this.deleteFile(backup)) {
+                ++deleted;
+                dedup |= backup.getFormat() == BackupFormat.DEDUP;
+                this.countPruned(backup);
+            }
+        }
+        this.metadataCache.save();
+        if (dedup) {
+            this.collectGarbage();
+        }
+        return deleted;
+    }
+
+    /**
+     * Deletes the oldest automatically named backups until at most keep of them
+     * are left. Renamed backups are never deleted. The result of each job is
+     * whether the backup was actually deleted. Must be called on the event
+     * queue.
+     */
+    public List<BackupJob<Boolean>> pruneBackups(int keep) {
+        return this.deleteBackups(this.catalog.getOldestManaged(this.catalog.getManagedCount() - keep), true);
+    }
+
+    /**
+     * Records the deletion of a pruned backup in the metrics and as JFR event.
+     */
+    private void countPruned(Backup backup) {
+        BACKUPS_PRUNED.increment();
+        var event = new PipelineEvents.BackupPruned();
+        if (event.shouldCommit()) {
+            event.backup = backup.getName();
+            event.commit();
         }
     }
 
     @Override
     public int getSize() {
-        return (int) this.backups.stream().filter(f -> f != null).count();
+        return this.catalog.size();
     }
 
     @Override
     public Backup getElementAt(int index) {
-        return index < this.backups.size() ? this.backups.get(index) : null;
+        return this.catalog.get(index);
     }
 
     @Override
     public void addListDataListener(ListDataListener l) {
-        this.listeners.add(l);
+        this.catalog.addListDataListener(l);
     }
 
     @Override
     public void removeListDataListener(ListDataListener l) {
-        this.listeners.remove(l);
+        this.catalog.removeListDataListener(l);
     }
 
     @Override
     public void propertyChange(PropertyChangeEvent evt) {
-        int idx = this.backups.indexOf(evt.getSource());
-        var e = new ListDataEvent(this, ListDataEvent.CONTENTS_CHANGED, idx, idx);
-        this.listeners.forEach(l -> l.contentsChanged(e));
+        this.eventQueue.execute(() -> this.catalog.changed((Backup) evt.getSource()));
     }
 }
@@ -0,0 +1,288 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the folder trees of any number of {@link FolderWatcher}s with one
+ * thread and one watch service, and runs all their debouncers on one shared
+ * scheduler thread. Single directories can be watched for new and deleted
+ * entries as well. Folders for which no events are available, e.g. because
+ * they do not exist yet or are on a file system without events, are polled
+ * once per second instead until they can be registered.
+ */
+class FolderWatchService {
+    private static final long POLL_INTERVAL_MS = 1000;
+
+    private static class Registration {
+        private final Path root;
+        // Whether the whole tree is watched rather than the entries of the root.
+        private final boolean recursive;
+        private final Runnable onChange;
+        private final List<WatchKey> keys = new ArrayList<>();
+        private boolean removed = false;
+        private TreeSnapshot polled;
+
+        Registration(Path root, boolean recursive, Runnable onChange) {
+            this.root = root;
+            this.recursive = recursive;
+            this.onChange = onChange;
+        }
+    }
+
+    private final Thread thread = new Thread(this::run, "Folder watch service");
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        var thread = new Thread(r, "FolderWatcher debouncer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Object, Registration> registrations = new LinkedHashMap<>();
+    private final Map<WatchKey, Path> keyDirs = new HashMap<>();
+    private final Map<WatchKey, Registration> keyRegistrations = new HashMap<>();
+    private final WatchService watchService;
+
+    FolderWatchService() {
+        WatchService watchService = null;
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException | UnsupportedOperationException ex) {
+            System.out.println("File system events not available, falling back to polling.");
+        }
+        this.watchService = watchService;
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    ScheduledExecutorService getScheduler() {
+        return this.scheduler;
+    }
+
+    /**
+     * Starts watching the folder of the given watcher. The tree is registered on
+     * the scheduler thread, so that the caller is not blocked by walking it.
+     */
+    void add(FolderWatcher watcher) {
+        var registration = new Registration(watcher.getFolderPath(), true, watcher::signal);
+        synchronized (this) {
+            this.registrations.put(watcher, registration);
+        }
+        this.scheduler.execute(() -> {
+            watcher.updateLastModified();
+            this.register(registration);
+            // Changes made while the tree was not registered are caught by the first check.
+            watcher.signal();
+        });
+    }
+
+    /**
+     * Starts watching the given directory for new and deleted entries. The
+     * callback is run on the scheduler thread.
+     */
+    void addDirectory(Object key, Path dir, Runnable onChange) {
+        var registration = new Registration(dir, false, () -> this.scheduler.execute(onChange));
+        synchronized (this) {
+            this.registrations.put(key, registration);
+        }
+        this.register(registration);
+    }
+
+    /**
+     * Stops watching the folder of the given watcher or the directory added
+     * with the given key.
+     */
+    synchronized void remove(Object key) {
+        var registration = this.registrations.remove(key);
+        if (registration != null) {
+            registration.removed = true;
+            this.cancelKeys(registration);
+        }
+    }
+
+    /**
+     * Registers the tree of the given watcher again, e.g. after its folder has
+     * been replaced by another directory.
+     */
+    void reregister(FolderWatcher watcher) {
+        Registration registration;
+        synchronized (this) {
+            registration = this.registrations.get(watcher);
+            if (registration != null) {
+                this.cancelKeys(registration);
+            }
+        }
+        if (registration != null) {
+            this.register(registration);
+            watcher.signal();
+        }
+    }
+
+    void shutdown() {
+        this.thread.interrupt();
+        this.scheduler.shutdownNow();
+        if (this.watchService != null) {
+            try {
+                this.watchService.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+
+    private boolean canRegister(Path root) {
+        return this.watchService != null && root.getFileSystem() == FileSystems.getDefault();
+    }
+
+    /**
+     * Registers the tree of the given registration, which is polled instead if
+     * that fails. Returns whether the tree has been registered.
+     */
+    private synchronized boolean register(Registration registration) {
+        if (registration.removed) {
+            return false;
+        }
+        var root = registration.root;
+        try {
+            if (!this.canRegister(root)) {
+                throw new UnsupportedOperationException();
+            }
+            if (registration.recursive) {
+                this.registerTree(registration, root);
+            } else {
+                this.registerDirectory(registration, root, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+            }
+            registration.polled = null;
+            return true;
+        } catch (IOException | UnsupportedOperationException ex) {
+            this.cancelKeys(registration);
+            registration.polled = TreeSnapshot.of(root);
+            return false;
+        }
+    }
+
+    private void registerTree(Registration registration, Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                FolderWatchService.this.registerDirectory(registration, dir, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void registerDirectory(Registration registration, Path dir, WatchEvent.Kind<?>... kinds)
+            throws IOException {
+        var key = dir.register(this.watchService, kinds);
+        registration.keys.add(key);
+        this.keyDirs.put(key, dir);
+        this.keyRegistrations.put(key, registration);
+    }
+
+    private void cancelKeys(Registration registration) {
+        for (var key : registration.keys) {
+            key.cancel();
+            this.keyDirs.remove(key);
+            this.keyRegistrations.remove(key);
+        }
+        registration.keys.clear();
+    }
+
+    private void run() {
+        long lastPoll = System.currentTimeMillis();
+        try {
+            while (!this.thread.isInterrupted()) {
+                if (this.watchService != null) {
+                    var key = this.watchService.poll(POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                    if (key != null) {
+                        this.process(key);
+                    }
+                } else {
+                    Thread.sleep(POLL_INTERVAL_MS);
+                }
+                if (POLL_INTERVAL_MS <= System.currentTimeMillis() - lastPoll) {
+                    this.poll();
+                    lastPoll = System.currentTimeMillis();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ex) {
+        }
+    }
+
+    private synchronized void process(WatchKey key) {
+        var dir = this.keyDirs.get(key);
+        var registration = this.keyRegistrations.get(key);
+        var events = key.pollEvents();
+        if (registration == null) {
+            // Cancelled while the events were delivered.
+            return;
+        }
+        for (WatchEvent<?> event : events) {
+            if (registration.recursive && event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                var child = dir.resolve((Path) event.context());
+                if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    try {
+                        this.registerTree(registration, child);
+                    } catch (IOException ex) {
+                        // The directory vanished again before it could be registered.
+                    }
+                }
+            }
+        }
+        if (!key.reset()) {
+            registration.keys.remove(key);
+            this.keyDirs.remove(key);
+            this.keyRegistrations.remove(key);
+            if (registration.keys.isEmpty()) {
+                // The watched folder itself is gone.
+                registration.polled = TreeSnapshot.of(registration.root);
+            }
+        }
+        registration.onChange.run();
+    }
+
+    /**
+     * Notifies the registrations of all polled folders which have changed since
+     * the last poll and tries to register those which can be registered again.
+     */
+    private void poll() {
+        Map<Registration, TreeSnapshot> polled = new HashMap<>();
+        synchronized (this) {
+            this.registrations.values().stream().filter(r -> r.polled != null).forEach(r -> polled.put(r, r.polled));
+        }
+        for (var entry : polled.entrySet()) {
+            var registration = entry.getKey();
+            var root = registration.root;
+            var snapshot = TreeSnapshot.of(root);
+            boolean changed = !snapshot.equals(entry.getValue());
+            synchronized (this) {
+                if (registration.removed || registration.polled == null) {
+                    continue;
+                }
+                registration.polled = snapshot;
+            }
+            if ((this.canRegister(root) && Files.isDirectory(root) && this.register(registration)) || changed) {
+                registration.onChange.run();
+            }
+        }
+    }
+}
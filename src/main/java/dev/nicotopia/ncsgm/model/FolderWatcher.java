@@ -1,62 +1,131 @@
 package dev.nicotopia.ncsgm.model;
 
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.function.LongConsumer;
 
 public class FolderWatcher {
+    private static final Metrics.Histogram DEBOUNCE_DELAY = Metrics.histogram("watcher.debounceDelay", "ms");
+
     private final Path folderPath;
-    private final Thread thread;
-    private Runnable onModifiedCallback;
-    private long lastModified = -1;
+    private final FolderWatchService service;
+    private final boolean ownsService;
+    private final ChangeDebouncer debouncer;
+    // Held while checking, so that interrupt can wait for a running check.
+    private final Object checkLock = new Object();
+    private volatile LongConsumer onModifiedCallback;
+    private TreeSnapshot lastSnapshot = TreeSnapshot.EMPTY;
 
     public FolderWatcher(Path folderPath) {
+        this(folderPath, Configuration.Debounce.DEFAULT);
+    }
+
+    public FolderWatcher(Path folderPath, Configuration.Debounce debounce) {
+        this(folderPath, debounce, new FolderWatchService(), true);
+    }
+
+    /**
+     * Creates a watcher which shares the given service with other watchers.
+     */
+    FolderWatcher(Path folderPath, Configuration.Debounce debounce, FolderWatchService service) {
+        this(folderPath, debounce, service, false);
+    }
+
+    private FolderWatcher(Path folderPath, Configuration.Debounce debounce, FolderWatchService service,
+            boolean ownsService) {
         this.folderPath = folderPath;
-        this.thread = new Thread(this::run);
+        this.service = service;
+        this.ownsService = ownsService;
+        this.debouncer = new ChangeDebouncer(folderPath, debounce, service.getScheduler(), this::checkFolder);
     }
 
-    private void run() {
-        System.out.printf("Now watching for changes: %s\n", this.folderPath.toFile().getAbsolutePath());
-        this.updateLastModified();
-        try {
-            while (!this.thread.isInterrupted()) {
-                Thread.sleep(1000);
-                this.checkFolder();
-            }
-        } catch (InterruptedException ex) {
-        }
+    Path getFolderPath() {
+        return this.folderPath;
     }
 
+    /**
+     * Called by the service whenever something in the watched tree may have
+     * changed.
+     */
+    void signal() {
+        this.debouncer.signal();
+    }
+
+    /**
+     * Starts watching. The callback is run once the folder has settled after a
+     * change.
+     */
     public void start(Runnable onModifiedCallback) {
+        this.start(firstChange -> onModifiedCallback.run());
+    }
+
+    /**
+     * Starts watching. The callback is run once the folder has settled after a
+     * change and receives the time in milliseconds the change was first seen.
+     */
+    public void start(LongConsumer onModifiedCallback) {
+        System.out.printf("Now watching for changes: %s\n", this.folderPath.toFile().getAbsolutePath());
         this.onModifiedCallback = onModifiedCallback;
-        this.thread.start();
+        this.service.add(this);
     }
 
+    /**
+     * Stops watching. A change which is being checked right now may still be
+     * reported unless join is set.
+     */
     public void interrupt(boolean join) {
-        this.thread.interrupt();
+        this.onModifiedCallback = null;
+        this.service.remove(this);
+        if (this.ownsService) {
+            this.service.shutdown();
+        }
         if (join) {
-            try {
-                this.thread.join();
-            } catch (InterruptedException ex) {
-                ex.printStackTrace();
+            // Waits for a running check. Unlike the folder lock, no job holds the check lock while it waits for the
+            // event queue, so this may be called there.
+            synchronized (this.checkLock) {
             }
         }
     }
 
-    private void checkFolder() {
+    /**
+     * Also locks the folder, which a {@link FolderBackupManager} locks while
+     * restoring, so that a restore is never taken for a change.
+     */
+    private void checkFolder(long firstChange) {
         synchronized (this.folderPath) {
-            var folder = this.folderPath.toFile();
-            if (folder.isDirectory() && this.lastModified != folder.lastModified()
-                    && folder.lastModified() + 1000 < System.currentTimeMillis()) {
-                if (this.onModifiedCallback != null) {
-                    this.onModifiedCallback.run();
+            synchronized (this.checkLock) {
+                var callback = this.onModifiedCallback;
+                var current = TreeSnapshot.of(this.folderPath);
+                if (callback != null && Files.isDirectory(this.folderPath) && !this.lastSnapshot.equals(current)) {
+                    long delay = System.currentTimeMillis() - firstChange;
+                    DEBOUNCE_DELAY.record(delay);
+                    var event = new PipelineEvents.ChangeDetected();
+                    if (event.shouldCommit()) {
+                        event.folder = this.folderPath.toString();
+                        event.debounceDelay = delay;
+                        event.commit();
+                    }
+                    callback.accept(firstChange);
+                    this.lastSnapshot = current;
                 }
-                this.lastModified = folder.lastModified();
             }
         }
     }
 
+    /**
+     * To be called after the watched folder has been replaced by another
+     * directory, e.g. by a restore. Takes the new contents as unmodified and
+     * watches the new directory instead of the replaced one, which some file
+     * systems keep reporting on after it has been moved.
+     */
+    public void folderReplaced() {
+        this.updateLastModified();
+        this.service.reregister(this);
+    }
+
     public void updateLastModified() {
-        synchronized (this.folderPath) {
-            this.lastModified = this.folderPath.toFile().lastModified();
+        synchronized (this.checkLock) {
+            this.lastSnapshot = TreeSnapshot.of(this.folderPath);
         }
     }
 }
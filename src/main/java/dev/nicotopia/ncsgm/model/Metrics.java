@@ -0,0 +1,139 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Process wide counters and histograms of the backup pipeline. All of them may
+ * be updated from any thread. The same measurements are emitted as JFR events,
+ * see {@link PipelineEvents}, and the whole report at the end of every
+ * recording chunk.
+ */
+public final class Metrics {
+    public static final class Counter {
+        private final LongAdder value = new LongAdder();
+
+        public void add(long n) {
+            this.value.add(n);
+        }
+
+        public void increment() {
+            this.value.increment();
+        }
+
+        public long get() {
+            return this.value.sum();
+        }
+    }
+
+    /**
+     * Histogram of non-negative values with one bucket per power of two, so
+     * percentiles are exact up to a factor of two.
+     */
+    public static final class Histogram {
+        private final String unit;
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        private Histogram(String unit) {
+            this.unit = unit;
+            for (int i = 0; i < this.buckets.length; ++i) {
+                this.buckets[i] = new LongAdder();
+            }
+        }
+
+        public void record(long value) {
+            value = Math.max(0, value);
+            this.buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+            this.count.increment();
+            this.sum.add(value);
+            this.max.accumulate(value);
+        }
+
+        public String getUnit() {
+            return this.unit;
+        }
+
+        public long getCount() {
+            return this.count.sum();
+        }
+
+        public long getSum() {
+            return this.sum.sum();
+        }
+
+        public long getMax() {
+            return this.max.get();
+        }
+
+        /**
+         * Returns an upper bound of the given percentile, between 0 and 100, or 0
+         * if nothing has been recorded.
+         */
+        public long getPercentile(double percentile) {
+            long rank = (long) Math.ceil(percentile / 100 * this.getCount());
+            long seen = 0;
+            for (int i = 0; i < this.buckets.length; ++i) {
+                seen += this.buckets[i].sum();
+                if (rank <= seen && 0 < seen) {
+                    return Math.min(this.getMax(), i == 0 ? 0 : (1L << i) - 1);
+                }
+            }
+            return this.getMax();
+        }
+    }
+
+    private static final Map<String, Counter> COUNTERS = new ConcurrentSkipListMap<>();
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentSkipListMap<>();
+
+    static {
+        FlightRecorder.addPeriodicEvent(PipelineEvents.MetricsReport.class, () -> {
+            var event = new PipelineEvents.MetricsReport();
+            event.report = report();
+            event.commit();
+        });
+    }
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name) {
+        return COUNTERS.computeIfAbsent(name, n -> new Counter());
+    }
+
+    public static Histogram histogram(String name, String unit) {
+        return HISTOGRAMS.computeIfAbsent(name, n -> new Histogram(unit));
+    }
+
+    public static Map<String, Counter> getCounters() {
+        return Collections.unmodifiableMap(COUNTERS);
+    }
+
+    public static Map<String, Histogram> getHistograms() {
+        return Collections.unmodifiableMap(HISTOGRAMS);
+    }
+
+    /**
+     * Returns all counters and the histograms recorded at least once, one per
+     * line.
+     */
+    public static String report() {
+        var sb = new StringBuilder();
+        COUNTERS.forEach((name, c) -> sb.append(String.format("%s: %d\n", name, c.get())));
+        HISTOGRAMS.forEach((name, h) -> {
+            if (h.getCount() != 0) {
+                sb.append(String.format("%s: n=%d mean=%d p50=%d p90=%d p99=%d max=%d %s\n", name, h.getCount(),
+                        h.getSum() / h.getCount(), h.getPercentile(50), h.getPercentile(90), h.getPercentile(99),
+                        h.getMax(), h.getUnit()));
+            }
+        });
+        return sb.toString();
+    }
+}
@@ -0,0 +1,245 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Path pattern whose segments, separated by '/', may contain glob wildcards,
+ * e.g. "PlayerProfiles/{@literal *}/Savegames". Wildcard segments only match
+ * directories, the remaining segments are taken as they are, whether they exist
+ * or not. The listings of the directories containing wildcard matches are
+ * cached and only read again once the modification time of the directory has
+ * changed.
+ */
+public class PathGlob {
+    private static final Map<String, PathGlob> CACHE = new ConcurrentHashMap<>();
+
+    private record Listing(FileTime lastModified, List<Path> matches) {
+    }
+
+    /**
+     * Key of the registration of a listed directory with the watch service.
+     */
+    private record ListingKey(Watch watch, Path dir) {
+    }
+
+    /**
+     * Reports the matches of the pattern as they appear.
+     */
+    class Watch {
+        private final FolderWatchService service;
+        private final Consumer<Path> onMatchAdded;
+        private final Set<Path> matches = new HashSet<>();
+        private final Set<Path> dirs = new HashSet<>();
+        private volatile boolean stopped = false;
+
+        private Watch(FolderWatchService service, Consumer<Path> onMatchAdded) {
+            this.service = service;
+            this.onMatchAdded = onMatchAdded;
+        }
+
+        private synchronized void update() {
+            if (this.stopped) {
+                return;
+            }
+            var dirs = new LinkedHashSet<Path>();
+            var matches = PathGlob.this.resolve(dirs);
+            for (var dir : dirs) {
+                if (this.dirs.add(dir)) {
+                    this.service.addDirectory(new ListingKey(this, dir), dir, this::update);
+                }
+            }
+            for (var it = this.dirs.iterator(); it.hasNext();) {
+                var dir = it.next();
+                if (!dirs.contains(dir)) {
+                    this.service.remove(new ListingKey(this, dir));
+                    it.remove();
+                }
+            }
+            for (var match : matches) {
+                if (this.matches.add(match)) {
+                    this.onMatchAdded.accept(match);
+                }
+            }
+        }
+
+        void stop() {
+            this.stopped = true;
+            synchronized (this) {
+                this.dirs.forEach(dir -> this.service.remove(new ListingKey(this, dir)));
+                this.dirs.clear();
+            }
+        }
+    }
+
+    private final String pattern;
+    private final Path root;
+    // One entry per segment after the root, either a matcher or the segment as it is.
+    private final List<Object> segments = new ArrayList<>();
+    private final Map<Path, Listing> listings = new HashMap<>();
+
+    private PathGlob(String pattern) {
+        this.pattern = pattern;
+        var parts = pattern.split("/", -1);
+        int first = 0;
+        while (first < parts.length && !isWildcard(parts[first])) {
+            ++first;
+        }
+        var prefix = String.join("/", List.of(parts).subList(0, first));
+        this.root = Path.of(prefix.isEmpty() && first != 0 ? "/" : prefix);
+        for (int i = first; i < parts.length; ++i) {
+            if (isWildcard(parts[i])) {
+                this.segments.add(this.root.getFileSystem().getPathMatcher("glob:" + parts[i]));
+            } else if (!parts[i].isEmpty()) {
+                this.segments.add(parts[i]);
+            }
+        }
+    }
+
+    /**
+     * Returns the glob of the given pattern. Globs are shared, so the listings
+     * of their directories are cached across calls.
+     */
+    public static PathGlob of(String pattern) {
+        return CACHE.computeIfAbsent(pattern, PathGlob::new);
+    }
+
+    public static boolean isWildcard(String pattern) {
+        return pattern.chars().anyMatch(c -> c == '*' || c == '?' || c == '[' || c == '{');
+    }
+
+    public String getPattern() {
+        return this.pattern;
+    }
+
+    /**
+     * Returns all current matches, sorted.
+     */
+    public List<Path> getMatches() {
+        return this.resolve(new ArrayList<>());
+    }
+
+    /**
+     * Returns the first match, or the pattern with all wildcard segments
+     * replaced by "unknown" if there is none.
+     */
+    public Path getFirstMatch() {
+        var matches = this.getMatches();
+        if (!matches.isEmpty()) {
+            return matches.get(0);
+        }
+        var path = this.root;
+        for (var segment : this.segments) {
+            path = path.resolve(segment instanceof String name ? name : "unknown");
+        }
+        return path;
+    }
+
+    /**
+     * Returns the match earlier versions resolved the pattern to, which took
+     * the first directory listed for every wildcard segment, or null if there
+     * is none. Lists the directories every time.
+     */
+    public Path getLegacyMatch() {
+        var path = this.root;
+        for (var segment : this.segments) {
+            if (segment instanceof PathMatcher matcher) {
+                var children = path.toFile()
+                        .list((dir, name) -> new File(dir, name).isDirectory() && matcher.matches(Path.of(name)));
+                if (children == null || children.length == 0) {
+                    return null;
+                }
+                path = path.resolve(children[0]);
+            } else {
+                path = path.resolve((String) segment);
+            }
+        }
+        return path;
+    }
+
+    /**
+     * Returns the names the wildcard segments of the given match matched, in
+     * order.
+     */
+    public List<String> getCaptures(Path match) {
+        var captures = new ArrayList<String>();
+        int offset = this.root.toString().isEmpty() ? 0 : this.root.getNameCount();
+        for (int i = 0; i < this.segments.size(); ++i) {
+            if (this.segments.get(i) instanceof PathMatcher) {
+                captures.add(match.getName(offset + i).toString());
+            }
+        }
+        return captures;
+    }
+
+    /**
+     * Reports every current and future match to the given consumer, once per
+     * match, on the scheduler thread of the service. The directories listed for
+     * the wildcard segments are watched for new entries, so nothing is listed
+     * again unless one of them has changed.
+     */
+    Watch watch(FolderWatchService service, Consumer<Path> onMatchAdded) {
+        var watch = new Watch(service, onMatchAdded);
+        service.getScheduler().execute(watch::update);
+        return watch;
+    }
+
+    /**
+     * Returns the sorted matches and adds the directories listed for them to
+     * the given collection.
+     */
+    private synchronized List<Path> resolve(Collection<Path> listedDirs) {
+        var matches = new ArrayList<Path>();
+        this.resolve(this.root, 0, matches, listedDirs);
+        matches.sort(null);
+        return matches;
+    }
+
+    private void resolve(Path path, int segmentIdx, List<Path> matches, Collection<Path> listedDirs) {
+        if (segmentIdx == this.segments.size()) {
+            matches.add(path);
+        } else if (this.segments.get(segmentIdx) instanceof PathMatcher matcher) {
+            listedDirs.add(path);
+            for (var child : this.list(path, matcher)) {
+                this.resolve(child, segmentIdx + 1, matches, listedDirs);
+            }
+        } else {
+            this.resolve(path.resolve((String) this.segments.get(segmentIdx)), segmentIdx + 1, matches, listedDirs);
+        }
+    }
+
+    private List<Path> list(Path dir, PathMatcher matcher) {
+        FileTime lastModified;
+        try {
+            lastModified = Files.getLastModifiedTime(dir);
+        } catch (IOException ex) {
+            this.listings.remove(dir);
+            return List.of();
+        }
+        var listing = this.listings.get(dir);
+        if (listing == null || !listing.lastModified().equals(lastModified)) {
+            try (var children = Files.list(dir)) {
+                listing = new Listing(lastModified,
+                        children.filter(p -> Files.isDirectory(p) && matcher.matches(p.getFileName())).toList());
+            } catch (IOException ex) {
+                listing = new Listing(lastModified, List.of());
+            }
+            this.listings.put(dir, listing);
+        }
+        return listing.matches();
+    }
+}
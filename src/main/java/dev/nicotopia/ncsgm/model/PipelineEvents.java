@@ -0,0 +1,120 @@
+package dev.nicotopia.ncsgm.model;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Custom JFR events of the backup pipeline. They are only recorded while a
+ * flight recording is running, e.g. when started with
+ * -XX:StartFlightRecording.
+ */
+final class PipelineEvents {
+    private PipelineEvents() {
+    }
+
+    @Name("dev.nicotopia.ncsgm.ChangeDetected")
+    @Label("Change Detected")
+    @Description("The watched folder has settled after a change and a backup is requested.")
+    @Category("NcSGM")
+    @StackTrace(false)
+    static class ChangeDetected extends Event {
+        @Label("Folder")
+        String folder;
+
+        @Label("Debounce Delay")
+        @Description("Time from the first change of the burst until the folder had settled.")
+        @Timespan(Timespan.MILLISECONDS)
+        long debounceDelay;
+    }
+
+    @Name("dev.nicotopia.ncsgm.BackupCreated")
+    @Label("Backup Created")
+    @Category("NcSGM")
+    @StackTrace(false)
+    static class BackupCreated extends Event {
+        @Label("Backup")
+        String backup;
+
+        @Label("Format")
+        String format;
+
+        @Label("Bytes Read")
+        @DataAmount
+        long bytesRead;
+
+        @Label("Bytes Written")
+        @DataAmount
+        long bytesWritten;
+
+        @Label("Files Written")
+        int filesWritten;
+
+        @Label("Files Copied")
+        int filesCopied;
+
+        @Label("Capture Duration")
+        @Description("Time the watched folder had to stay unchanged while it was copied to the staging area.")
+        @Timespan(Timespan.MILLISECONDS)
+        long captureDuration;
+
+        @Label("Detection Latency")
+        @Description("Time from the first change until the backup was complete, or -1 if not triggered by a change.")
+        @Timespan(Timespan.MILLISECONDS)
+        long detectionLatency;
+    }
+
+    @Name("dev.nicotopia.ncsgm.BackupRestored")
+    @Label("Backup Restored")
+    @Category("NcSGM")
+    @StackTrace(false)
+    static class BackupRestored extends Event {
+        @Label("Backup")
+        String backup;
+
+        @Label("Files Written")
+        int filesWritten;
+
+        @Label("Files Kept")
+        int filesKept;
+    }
+
+    @Name("dev.nicotopia.ncsgm.BackupPruned")
+    @Label("Backup Pruned")
+    @Category("NcSGM")
+    @StackTrace(false)
+    static class BackupPruned extends Event {
+        @Label("Backup")
+        String backup;
+    }
+
+    @Name("dev.nicotopia.ncsgm.MetricsReport")
+    @Label("Metrics Report")
+    @Description("All counters and histograms of Metrics, emitted at the end of every recording chunk.")
+    @Category("NcSGM")
+    @Period("endChunk")
+    @StackTrace(false)
+    static class MetricsReport extends Event {
+        @Label("Report")
+        String report;
+    }
+
+    @Name("dev.nicotopia.ncsgm.ThumbnailDecoded")
+    @Label("Thumbnail Decoded")
+    @Category("NcSGM")
+    @StackTrace(false)
+    static class ThumbnailDecoded extends Event {
+        @Label("Backup")
+        String backup;
+
+        @Label("From Sidecar")
+        @Description("Whether the thumbnail was read from the sidecar cache rather than decoded from the backup.")
+        boolean fromSidecar;
+    }
+}
@@ -0,0 +1,163 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Selects the backups to delete according to a {@link Configuration.Retention}.
+ * Only automatically named backups are ever selected, and never the newest of
+ * them or the active backup. Renamed backups still count towards the byte
+ * budget. The chunks referenced by DEDUP backups are cached, so a pass only
+ * reads the manifests of backups it has not seen before.
+ */
+class RetentionEngine {
+    /**
+     * Bytes taken up by a set of backups, counting shared chunks once.
+     */
+    private class Usage {
+        private final Map<String, Integer> references = new HashMap<>();
+        private final Map<String, Long> chunkSizes = new HashMap<>();
+        private long total = 0;
+
+        Usage(List<Backup> backups) throws IOException {
+            for (var backup : backups) {
+                this.total += backup.getFile().length();
+                for (var chunk : RetentionEngine.this.getChunks(backup)) {
+                    if (this.references.merge(chunk, 1, Integer::sum) == 1) {
+                        long size;
+                        try {
+                            size = backup.getChunkStore().sizeOf(chunk);
+                        } catch (NoSuchFileException ex) {
+                            size = 0;
+                        }
+                        this.chunkSizes.put(chunk, size);
+                        this.total += size;
+                    }
+                }
+            }
+        }
+
+        void remove(Backup backup) throws IOException {
+            this.total -= backup.getFile().length();
+            for (var chunk : RetentionEngine.this.getChunks(backup)) {
+                if (this.references.merge(chunk, -1, Integer::sum) == 0) {
+                    this.references.remove(chunk);
+                    this.total -= this.chunkSizes.remove(chunk);
+                }
+            }
+        }
+    }
+
+    private final Configuration.Retention retention;
+    private Map<Backup, Set<String>> chunks = new HashMap<>();
+
+    RetentionEngine(Configuration.Retention retention) {
+        this.retention = retention;
+    }
+
+    /**
+     * Returns the backups to delete, oldest first.
+     *
+     * @param backups   All backups, sorted by timestamp.
+     * @param isManaged Whether a backup is named automatically.
+     * @param active    The active backup or null.
+     */
+    synchronized List<Backup> select(List<Backup> backups, Predicate<Backup> isManaged, Backup active,
+            LocalDateTime now) throws IOException {
+        var managed = backups.stream().filter(isManaged).toList();
+        if (managed.isEmpty()) {
+            return List.of();
+        }
+        var kept = new HashSet<Backup>();
+        kept.add(managed.get(managed.size() - 1));
+        if (active != null) {
+            kept.add(active);
+        }
+        var selected = new HashSet<Backup>();
+        if (this.retention.hasBuckets()) {
+            var buckets = new HashSet<Object>();
+            // Newest first, so the newest backup of each bucket is kept.
+            for (int i = managed.size() - 1; 0 <= i; --i) {
+                var backup = managed.get(i);
+                LocalDateTime time;
+                try {
+                    time = LocalDateTime.parse(backup.getTimestamp(), FolderBackupManager.TIMESTAMP_FORMATTER);
+                } catch (DateTimeParseException ex) {
+                    continue;
+                }
+                var age = Duration.between(time, now);
+                Object bucket;
+                if (age.compareTo(Duration.ofHours(this.retention.keepAllHours())) < 0) {
+                    continue;
+                } else if (age.compareTo(Duration.ofDays(this.retention.keepHourlyDays())) < 0) {
+                    bucket = time.truncatedTo(ChronoUnit.HOURS);
+                } else if (age.compareTo(Duration.ofDays(this.retention.keepDailyDays())) < 0) {
+                    bucket = time.toLocalDate();
+                } else {
+                    bucket = null;
+                }
+                if ((bucket == null || !buckets.add(bucket)) && !kept.contains(backup)) {
+                    selected.add(backup);
+                }
+            }
+        }
+        var usage = 0 < this.retention.maxBytes() ? this.measure(backups, selected) : null;
+        int excess = 0 < this.retention.maxCount() ? managed.size() - selected.size() - this.retention.maxCount() : 0;
+        for (var backup : managed) {
+            if (excess <= 0 && (usage == null || usage.total <= this.retention.maxBytes())) {
+                break;
+            } else if (!kept.contains(backup) && selected.add(backup)) {
+                --excess;
+                if (usage != null) {
+                    usage.remove(backup);
+                }
+            }
+        }
+        return managed.stream().filter(selected::contains).toList();
+    }
+
+    /**
+     * Returns the usage of the given backups without the removed ones and drops
+     * the cached chunks of backups which are gone.
+     */
+    private Usage measure(List<Backup> backups, Set<Backup> removed) throws IOException {
+        var chunks = new HashMap<Backup, Set<String>>();
+        for (var backup : backups) {
+            var cached = this.chunks.get(backup);
+            if (cached != null) {
+                chunks.put(backup, cached);
+            }
+        }
+        this.chunks = chunks;
+        var remaining = new ArrayList<Backup>(backups);
+        remaining.removeAll(removed);
+        return new Usage(remaining);
+    }
+
+    private Set<String> getChunks(Backup backup) throws IOException {
+        if (backup.getFormat() != BackupFormat.DEDUP) {
+            return Set.of();
+        }
+        var chunks = this.chunks.get(backup);
+        if (chunks == null) {
+            try {
+                chunks = backup.getReferencedChunks();
+            } catch (NoSuchFileException ex) {
+                chunks = Set.of();
+            }
+            this.chunks.put(backup, chunks);
+        }
+        return chunks;
+    }
+}
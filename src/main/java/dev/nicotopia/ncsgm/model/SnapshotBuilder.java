@@ -0,0 +1,259 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Writes the contents of a watched folder into a new backup. Files whose size
+ * and modification time, or failing that whose SHA-256, match the index of the
+ * previous backup are copied from that backup instead of being compressed
+ * again. Files can be compressed on a thread pool, they are still put into the
+ * backup in the order of the folder walk.
+ */
+class SnapshotBuilder {
+    private interface EntrySink {
+        void directory(String entryName, File dir) throws IOException;
+
+        void file(String entryName, File file) throws IOException;
+    }
+
+    /**
+     * An entry which is ready to be put into the backup on the backup worker.
+     */
+    private interface PendingEntry extends Closeable {
+        void put() throws IOException;
+
+        @Override
+        default void close() throws IOException {
+        }
+    }
+
+    private final BackupJob<?> job;
+    private final BackupWriter writer;
+    private final FileIndex index;
+    private final FileIndex previousIndex;
+    private final BackupReader previous;
+    private final Map<String, BackupEntry> previousEntries = new HashMap<>();
+    private final byte[] buffer;
+    private final MessageDigest digest;
+    private int copiedCount = 0;
+    private int writtenCount = 0;
+
+    /**
+     * @param previousIndex Index of the previous backup or null.
+     * @param previous      Reader of the previous backup or null. Must be of the
+     *                      same format as the new backup.
+     */
+    SnapshotBuilder(BackupJob<?> job, BackupWriter writer, FileIndex index, FileIndex previousIndex,
+            BackupReader previous, byte[] buffer) throws IOException {
+        this.job = job;
+        this.writer = writer;
+        this.index = index;
+        this.previousIndex = previous != null ? previousIndex : null;
+        this.previous = previous;
+        if (previous != null) {
+            previous.getEntries().forEach(e -> this.previousEntries.put(e.name(), e));
+        }
+        this.buffer = buffer;
+        this.digest = FileIndex.newDigest();
+    }
+
+    int getCopiedCount() {
+        return this.copiedCount;
+    }
+
+    int getWrittenCount() {
+        return this.writtenCount;
+    }
+
+    /**
+     * Reads, compresses and puts all files one after another on the calling
+     * thread.
+     */
+    void write(File root) throws IOException {
+        this.walk(null, root, new EntrySink() {
+            @Override
+            public void directory(String entryName, File dir) throws IOException {
+                SnapshotBuilder.this.writer.putDirectory(entryName, dir.lastModified());
+            }
+
+            @Override
+            public void file(String entryName, File file) throws IOException {
+                SnapshotBuilder.this.writeFile(entryName, file);
+            }
+        });
+    }
+
+    /**
+     * Reads and compresses files on the given pool while putting finished ones
+     * in walk order on the calling thread. At most window files are in flight at
+     * any time.
+     */
+    void write(File root, ExecutorService pool, int window) throws IOException {
+        var pending = new ArrayDeque<Future<PendingEntry>>();
+        try {
+            this.walk(null, root, new EntrySink() {
+                @Override
+                public void directory(String entryName, File dir) throws IOException {
+                    long lastModified = dir.lastModified();
+                    this.enqueue(CompletableFuture
+                            .completedFuture(() -> SnapshotBuilder.this.writer.putDirectory(entryName, lastModified)));
+                }
+
+                @Override
+                public void file(String entryName, File file) throws IOException {
+                    this.enqueue(pool.submit(() -> SnapshotBuilder.this.prepareFile(entryName, file)));
+                }
+
+                private void enqueue(Future<PendingEntry> future) throws IOException {
+                    pending.add(future);
+                    while (window < pending.size()) {
+                        SnapshotBuilder.this.putNext(pending.poll());
+                    }
+                }
+            });
+            while (!pending.isEmpty()) {
+                this.putNext(pending.poll());
+            }
+        } finally {
+            for (var future : pending) {
+                future.cancel(false);
+                try {
+                    future.get().close();
+                } catch (CancellationException | ExecutionException | IOException ex) {
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void putNext(Future<PendingEntry> future) throws IOException {
+        PendingEntry entry;
+        try {
+            entry = future.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for compression.");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException ioEx) {
+                throw ioEx;
+            } else if (ex.getCause() instanceof RuntimeException runtimeEx) {
+                throw runtimeEx;
+            }
+            throw new IOException(ex.getCause());
+        }
+        try (entry) {
+            entry.put();
+        }
+    }
+
+    private void walk(String baseName, File file, EntrySink sink) throws IOException {
+        this.job.checkCancelled();
+        String entryName = (baseName != null ? baseName + "/" : "") + file.getName();
+        if (file.isDirectory()) {
+            sink.directory(entryName + "/", file);
+            for (File child : file.listFiles()) {
+                this.walk(entryName, child, sink);
+            }
+        } else {
+            sink.file(entryName, file);
+        }
+    }
+
+    private void writeFile(String entryName, File file) throws IOException {
+        // Attributes are read first so that a write during the backup shows up as a change next time.
+        var attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        var hash = this.getReusableHash(entryName, file, attrs, this.buffer, this.digest);
+        if (hash != null) {
+            this.putCopy(entryName, attrs, hash);
+            return;
+        }
+        hash = this.writer.putFile(entryName, file, lastModified, read -> {
+            this.job.addBytesProcessed(read);
+            this.job.checkCancelled();
+        });
+        this.index.put(entryName, new FileIndex.Record(attrs.size(), lastModified, hash));
+        ++this.writtenCount;
+    }
+
+    /**
+     * Runs on the compression pool.
+     */
+    private PendingEntry prepareFile(String entryName, File file) throws IOException {
+        var attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        var hash = this.getReusableHash(entryName, file, attrs, new byte[64 * 1024], FileIndex.newDigest());
+        if (hash != null) {
+            return () -> this.putCopy(entryName, attrs, hash);
+        }
+        var prepared = this.writer.prepareFile(entryName, file, lastModified, read -> {
+            this.job.addBytesProcessed(read);
+            this.job.checkCancelled();
+        });
+        return new PendingEntry() {
+            @Override
+            public void put() throws IOException {
+                SnapshotBuilder.this.writer.putPrepared(prepared);
+                SnapshotBuilder.this.index.put(entryName,
+                        new FileIndex.Record(attrs.size(), lastModified, prepared.getHash()));
+                ++SnapshotBuilder.this.writtenCount;
+            }
+
+            @Override
+            public void close() throws IOException {
+                prepared.close();
+            }
+        };
+    }
+
+    private void putCopy(String entryName, BasicFileAttributes attrs, String hash) throws IOException {
+        this.writer.putCopy(this.previous, this.previousEntries.get(entryName));
+        this.index.put(entryName, new FileIndex.Record(attrs.size(), attrs.lastModifiedTime().toMillis(), hash));
+        this.job.addBytesProcessed(attrs.size());
+        ++this.copiedCount;
+    }
+
+    /**
+     * Returns the SHA-256 of the file if it can be copied from the previous
+     * backup or null if it has to be compressed again. Only reads the file if its
+     * size matches but its modification time does not.
+     */
+    private String getReusableHash(String entryName, File file, BasicFileAttributes attrs, byte[] buffer,
+            MessageDigest digest) throws IOException {
+        var previousRecord = this.previousIndex != null ? this.previousIndex.get(entryName) : null;
+        var previousEntry = this.previousEntries.get(entryName);
+        if (previousRecord == null || previousEntry == null || previousEntry.size() != attrs.size()
+                || previousRecord.size() != attrs.size()) {
+            return null;
+        }
+        if (previousRecord.lastModified() == attrs.lastModifiedTime().toMillis()) {
+            return previousRecord.hash();
+        }
+        try (InputStream is = new FileInputStream(file)) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+                this.job.checkCancelled();
+            }
+        }
+        var hash = HexFormat.of().formatHex(digest.digest());
+        return hash.equals(previousRecord.hash()) ? hash : null;
+    }
+}
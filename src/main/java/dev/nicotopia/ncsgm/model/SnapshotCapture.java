@@ -0,0 +1,227 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Copy of a watched folder in the staging area of the backup folder, from
+ * which the backup is written while the game may already write to the watched
+ * folder again. Files whose size and modification time match the index of the
+ * previous backup and which are larger than {@link #LINK_THRESHOLD} are hard
+ * linked if the file system supports it, their contents are copied from the
+ * previous backup anyway. All other files are copied. The folder is captured
+ * again if it changed meanwhile, so the capture is consistent unless the
+ * folder keeps changing.
+ * <p>
+ * A hard link is no copy, a write to the watched file after the capture shows
+ * up in it. Large unchanged files are linked anyway, copying them would make
+ * the capture take longer and so more likely to overlap with the next save of
+ * the game. Instead, {@link #verify} checks after the backup has been
+ * written that the linked files still have the size and modification time
+ * they had when captured, otherwise the backup fails and the watcher starts a
+ * new one for the write. A write which keeps both, or which happens within the
+ * granularity of the modification time, is not noticed, but the index of the
+ * previous backup takes such a file as unchanged anyway.
+ */
+class SnapshotCapture implements Closeable {
+    private record Link(Path path, long size, long lastModified) {
+    }
+
+    private static final String STAGING_FOLDER = ".staging";
+    private static final int ATTEMPTS = 3;
+    private static final long LINK_THRESHOLD = 1024 * 1024;
+
+    private final BackupJob<?> job;
+    private final Path pathToWatch;
+    private final FileIndex previousIndex;
+    private final Path dir;
+    private final Path root;
+    private final List<Link> links = new ArrayList<>();
+    private boolean linksSupported = true;
+    private int copiedCount = 0;
+
+    private SnapshotCapture(BackupJob<?> job, Path pathToWatch, FileIndex previousIndex, Path dir) {
+        this.job = job;
+        this.pathToWatch = pathToWatch;
+        this.previousIndex = previousIndex;
+        this.dir = dir;
+        this.root = dir.resolve(pathToWatch.getFileName());
+    }
+
+    /**
+     * Captures the watched folder for the backup with the given name. Empty if
+     * a capture for a backup of that name exists already.
+     *
+     * @param previousIndex Index of the previous backup or null.
+     */
+    static Optional<SnapshotCapture> create(BackupJob<?> job, Path pathToWatch, Path backupFolder, String name,
+            FileIndex previousIndex) throws IOException {
+        Path dir = null;
+        while (dir == null) {
+            var staging = Files.createDirectories(backupFolder.resolve(STAGING_FOLDER));
+            try {
+                dir = Files.createDirectory(staging.resolve(name));
+            } catch (FileAlreadyExistsException ex) {
+                return Optional.empty();
+            } catch (NoSuchFileException ex) {
+                // The staging area has just been deleted by the capture of the previous backup.
+            }
+        }
+        var capture = new SnapshotCapture(job, pathToWatch, previousIndex, dir);
+        try {
+            capture.capture();
+        } catch (IOException | RuntimeException ex) {
+            capture.close();
+            throw ex;
+        }
+        return Optional.of(capture);
+    }
+
+    /**
+     * Deletes the staging area, which is only left behind if the application was
+     * terminated while writing a backup.
+     */
+    static void deleteStaging(Path backupFolder) throws IOException {
+        var staging = backupFolder.resolve(STAGING_FOLDER);
+        if (Files.isDirectory(staging)) {
+            SnapshotRestorer.deleteRecursively(staging);
+        }
+    }
+
+    /**
+     * Returns the captured copy of the watched folder, which has the same name.
+     */
+    Path getRoot() {
+        return this.root;
+    }
+
+    int getLinkedCount() {
+        return this.links.size();
+    }
+
+    int getCopiedCount() {
+        return this.copiedCount;
+    }
+
+    private void capture() throws IOException {
+        for (int attempt = 1;; ++attempt) {
+            var before = TreeSnapshot.of(this.pathToWatch);
+            this.links.clear();
+            this.copiedCount = 0;
+            this.copyTree();
+            if (attempt == ATTEMPTS || TreeSnapshot.of(this.pathToWatch).equals(before)) {
+                return;
+            }
+            SnapshotRestorer.deleteRecursively(this.root);
+        }
+    }
+
+    /**
+     * Throws if a hard linked file has been written to since it was captured,
+     * in which case a backup written from the capture may hold its new
+     * contents along with the old contents of the other files.
+     */
+    void verify() throws IOException {
+        for (var link : this.links) {
+            var attrs = Files.readAttributes(link.path(), BasicFileAttributes.class);
+            if (attrs.size() != link.size() || attrs.lastModifiedTime().toMillis() != link.lastModified()) {
+                throw new IOException(String.format("%s changed while the backup was written.",
+                        this.root.relativize(link.path())));
+            }
+        }
+    }
+
+    private void copyTree() throws IOException {
+        var rootName = this.pathToWatch.getFileName().toString();
+        Files.walkFileTree(this.pathToWatch, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                SnapshotCapture.this.job.checkCancelled();
+                Files.createDirectory(SnapshotCapture.this.staged(dir));
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                SnapshotCapture.this.job.checkCancelled();
+                var relative = SnapshotCapture.this.pathToWatch.relativize(file).toString();
+                var entryName = rootName + "/" + relative.replace(file.getFileSystem().getSeparator(), "/");
+                try {
+                    SnapshotCapture.this.copyFile(file, SnapshotCapture.this.staged(file), entryName, attrs);
+                } catch (NoSuchFileException ex) {
+                    // Deleted meanwhile, which the next attempt notices.
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException ex) throws IOException {
+                if (ex instanceof NoSuchFileException && !file.equals(SnapshotCapture.this.pathToWatch)) {
+                    return FileVisitResult.CONTINUE;
+                }
+                throw ex;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                if (ex != null) {
+                    throw ex;
+                }
+                Files.setLastModifiedTime(SnapshotCapture.this.staged(dir), Files.getLastModifiedTime(dir));
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private Path staged(Path path) {
+        return this.root.resolve(this.pathToWatch.relativize(path).toString());
+    }
+
+    private void copyFile(Path file, Path target, String entryName, BasicFileAttributes attrs) throws IOException {
+        var record = this.previousIndex != null ? this.previousIndex.get(entryName) : null;
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        if (this.linksSupported && LINK_THRESHOLD < attrs.size() && record != null && record.size() == attrs.size()
+                && record.lastModified() == lastModified) {
+            try {
+                Files.createLink(target, file);
+                this.links.add(new Link(target, attrs.size(), lastModified));
+                return;
+            } catch (NoSuchFileException ex) {
+                throw ex;
+            } catch (UnsupportedOperationException | FileSystemException ex) {
+                // E.g. the backup folder is on another volume.
+                this.linksSupported = false;
+            }
+        }
+        Files.copy(file, target, StandardCopyOption.COPY_ATTRIBUTES);
+        ++this.copiedCount;
+    }
+
+    /**
+     * Deletes the capture, and the staging area as well unless another capture
+     * is in it.
+     */
+    @Override
+    public void close() throws IOException {
+        if (Files.exists(this.dir)) {
+            SnapshotRestorer.deleteRecursively(this.dir);
+        }
+        try {
+            Files.deleteIfExists(this.dir.getParent());
+        } catch (DirectoryNotEmptyException ex) {
+        }
+    }
+}
@@ -0,0 +1,434 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * Restores a backup into the watched folder, rewriting only the files which
+ * differ from it. Entries which differ from the live files by size or CRC-32
+ * are extracted into a staging directory next to the watched folder first.
+ * Once all of them are extracted, they are renamed into the watched folder,
+ * and the live files they replace and those which are not in the backup are
+ * renamed into an undo directory. Unchanged files are left where they are.
+ * A live file is only read if its size matches and the index of the backup,
+ * if given, does not show it unchanged.
+ * <p>
+ * If a rename fails, all renames done are reverted, so a failed restore leaves
+ * the watched folder as it was. Unlike swapping in a complete copy, this is
+ * not atomic, the watched folder is half restored while the renames run. They
+ * take a fraction of the extraction time, and the watched folder is locked
+ * meanwhile, see {@link FolderBackupManager#restoreBackup}.
+ * <p>
+ * The undo directory holds the replaced files at their paths in the watched
+ * folder, along with the list of paths the restore added. Undoing applies it
+ * just like a restore, so the restored files become the new undo point.
+ */
+class SnapshotRestorer {
+    /**
+     * Renames done while swapping, so that they can be reverted if a later one
+     * fails.
+     */
+    private static class Moves {
+        private record Move(Path from, Path to) {
+        }
+
+        private final Deque<Move> done = new ArrayDeque<>();
+
+        void move(Path from, Path to) throws IOException {
+            Files.move(from, to, StandardCopyOption.ATOMIC_MOVE);
+            this.done.push(new Move(from, to));
+        }
+
+        /**
+         * Reverts all moves, the latest first. Moves which cannot be reverted are
+         * added to ex as suppressed exceptions.
+         */
+        void revert(IOException ex) {
+            while (!this.done.isEmpty()) {
+                var move = this.done.pop();
+                try {
+                    Files.move(move.to(), move.from(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (IOException revertEx) {
+                    ex.addSuppressed(revertEx);
+                }
+            }
+        }
+    }
+
+    private static final String UNDO_CONTENTS = "contents";
+    private static final String UNDO_ADDED = "added";
+
+    private final BackupJob<?> job;
+    private final Path live;
+    private final FileIndex index;
+    private final Path staging;
+    private final Path undo;
+    private final byte[] buffer;
+    private final AtomicInteger writtenCount = new AtomicInteger();
+    private final AtomicInteger keptCount = new AtomicInteger();
+    private volatile boolean aborted = false;
+
+    /**
+     * @param index Index of the backup to restore or null.
+     */
+    SnapshotRestorer(BackupJob<?> job, Path live, FileIndex index, byte[] buffer) {
+        this.job = job;
+        this.live = live;
+        this.index = index;
+        this.staging = getStagingPath(live);
+        this.undo = getUndoPath(live);
+        this.buffer = buffer;
+    }
+
+    int getWrittenCount() {
+        return this.writtenCount.get();
+    }
+
+    int getKeptCount() {
+        return this.keptCount.get();
+    }
+
+    static Path getStagingPath(Path live) {
+        return live.resolveSibling("." + live.getFileName() + ".ncsgm-restore");
+    }
+
+    static Path getUndoPath(Path live) {
+        return live.resolveSibling("." + live.getFileName() + ".ncsgm-undo");
+    }
+
+    /**
+     * Extracts the changed files of the backup into the staging directory and
+     * renames them into the watched folder. Files are extracted on the given
+     * pool if it is not null.
+     */
+    void restore(BackupReader reader, ExecutorService pool) throws IOException {
+        deleteRecursively(this.staging);
+        try {
+            this.extract(reader, pool);
+            this.job.checkCancelled();
+            var names = new HashSet<Path>();
+            for (var entry : reader.getEntries()) {
+                var path = resolve(this.live, entry.name());
+                if (path != null) {
+                    names.add(this.live.relativize(path));
+                }
+            }
+            var removed = new ArrayList<Path>();
+            if (Files.isDirectory(this.live)) {
+                this.findRemoved(this.live, names, removed);
+            }
+            deleteRecursively(this.undo);
+            this.apply(this.staging, removed);
+        } finally {
+            deleteRecursively(this.staging);
+        }
+    }
+
+    /**
+     * Puts the files replaced by the last restore back and removes those it
+     * added. The restored files become the new undo point.
+     */
+    void undo() throws IOException {
+        if (!Files.isDirectory(this.undo)) {
+            throw new IOException("There is no restore to undo.");
+        }
+        deleteRecursively(this.staging);
+        Files.move(this.undo, this.staging, StandardCopyOption.ATOMIC_MOVE);
+        boolean undone = false;
+        try {
+            var added = new ArrayList<Path>();
+            var addedFile = this.staging.resolve(UNDO_ADDED);
+            if (Files.isRegularFile(addedFile)) {
+                for (var line : Files.readAllLines(addedFile, StandardCharsets.UTF_8)) {
+                    added.add(Path.of("", line.split("/")));
+                }
+            }
+            this.apply(this.staging.resolve(UNDO_CONTENTS), added);
+            undone = true;
+        } finally {
+            if (undone) {
+                deleteRecursively(this.staging);
+            } else if (!Files.exists(this.undo)) {
+                Files.move(this.staging, this.undo, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+    }
+
+    /**
+     * Restores a single file of the backup into the watched folder, leaving all
+     * other files as they are. The file is extracted next to its destination
+     * and renamed over it, there is no undo point. Returns whether the file had
+     * to be written, i.e. was missing or differed from the backup.
+     */
+    boolean restoreFile(BackupReader reader, BackupEntry entry) throws IOException {
+        var path = entry.directory() ? null : resolve(this.live, entry.name());
+        if (path == null) {
+            throw new IOException("Not a file: " + entry.name());
+        }
+        this.job.setBytesTotal(Math.max(0, entry.size()));
+        if (this.isUnchanged(path, entry, this.buffer)) {
+            this.keptCount.incrementAndGet();
+            return false;
+        }
+        Files.createDirectories(path.getParent());
+        var temp = path.resolveSibling("." + path.getFileName() + ".ncsgm-restore");
+        try {
+            try (var os = Files.newOutputStream(temp); var is = reader.getInputStream(entry)) {
+                FolderBackupManager.copy(is, os, this.buffer, read -> {
+                    this.job.addBytesProcessed(read);
+                    this.checkAborted();
+                });
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        this.writtenCount.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Creates all directories first, so that files can then be extracted in any
+     * order. Unchanged files are not extracted.
+     */
+    private void extract(BackupReader reader, ExecutorService pool) throws IOException {
+        this.job.setBytesTotal(reader.getEntries().stream().mapToLong(e -> Math.max(0, e.size())).sum());
+        Files.createDirectories(this.staging);
+        var files = new LinkedHashMap<BackupEntry, Path>();
+        for (var entry : reader.getEntries()) {
+            this.job.checkCancelled();
+            var path = resolve(this.staging, entry.name());
+            if (path == null) {
+                continue;
+            } else if (entry.directory()) {
+                Files.createDirectories(path);
+            } else {
+                Files.createDirectories(path.getParent());
+                files.put(entry, path);
+            }
+        }
+        if (pool == null) {
+            for (var file : files.entrySet()) {
+                this.extractFile(reader, file.getKey(), file.getValue(), this.buffer);
+            }
+            return;
+        }
+        var futures = new ArrayList<Future<?>>(files.size());
+        try {
+            files.forEach((entry, path) -> futures.add(pool.submit(() -> {
+                this.extractFile(reader, entry, path, new byte[64 * 1024]);
+                return null;
+            })));
+            for (var future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new CancellationException("Interrupted while waiting for extraction.");
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof IOException ioEx) {
+                        throw ioEx;
+                    } else if (ex.getCause() instanceof RuntimeException runtimeEx) {
+                        throw runtimeEx;
+                    }
+                    throw new IOException(ex.getCause());
+                }
+            }
+        } finally {
+            // Pending files are skipped, running ones have to finish before the staging directory is deleted.
+            this.aborted = true;
+            for (var future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException ex) {
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void extractFile(BackupReader reader, BackupEntry entry, Path path, byte[] buffer) throws IOException {
+        this.checkAborted();
+        var livePath = this.live.resolve(this.staging.relativize(path));
+        if (this.isUnchanged(livePath, entry, buffer)) {
+            this.job.addBytesProcessed(entry.size());
+            this.keptCount.incrementAndGet();
+            return;
+        }
+        try (var os = Files.newOutputStream(path); var is = reader.getInputStream(entry)) {
+            FolderBackupManager.copy(is, os, buffer, read -> {
+                this.job.addBytesProcessed(read);
+                this.checkAborted();
+            });
+        }
+        this.writtenCount.incrementAndGet();
+    }
+
+    private void checkAborted() {
+        this.job.checkCancelled();
+        if (this.aborted) {
+            throw new CancellationException("Extraction aborted.");
+        }
+    }
+
+    /**
+     * Only reads the live file if its size matches and the index does not show
+     * it unchanged.
+     */
+    private boolean isUnchanged(Path livePath, BackupEntry entry, byte[] buffer) throws IOException {
+        if (!Files.isRegularFile(livePath, LinkOption.NOFOLLOW_LINKS) || Files.size(livePath) != entry.size()) {
+            return false;
+        }
+        var record = this.index != null ? this.index.get(entry.name()) : null;
+        if (record != null && record.size() == entry.size()
+                && record.lastModified() == Files.getLastModifiedTime(livePath).toMillis()) {
+            return true;
+        } else if (entry.crc() == -1) {
+            return false;
+        }
+        var crc = new CRC32();
+        try (var is = Files.newInputStream(livePath)) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                this.checkAborted();
+            }
+        }
+        return crc.getValue() == entry.crc();
+    }
+
+    /**
+     * Maps an entry name to its path in the given copy of the watched folder.
+     * The first name element is the watched folder itself, for which null is
+     * returned.
+     */
+    private static Path resolve(Path root, String entryName) throws IOException {
+        int slash = entryName.indexOf('/');
+        var relative = slash == -1 ? "" : entryName.substring(slash + 1);
+        if (relative.isEmpty()) {
+            return null;
+        }
+        var path = root.resolve(relative).normalize();
+        if (!path.startsWith(root) || path.equals(root)) {
+            throw new IOException("Invalid entry name " + entryName);
+        }
+        return path;
+    }
+
+    /**
+     * Adds the paths relative to the watched folder of everything in the given
+     * live directory which is not in the backup, given by the relative paths of
+     * its entries. Directories which are in both are searched, the others are
+     * added as a whole.
+     */
+    private void findRemoved(Path dir, Set<Path> names, List<Path> removed) throws IOException {
+        for (var child : list(dir)) {
+            var relative = this.live.relativize(child);
+            if (!names.contains(relative)) {
+                removed.add(relative);
+            } else if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)
+                    && Files.isDirectory(this.staging.resolve(relative), LinkOption.NOFOLLOW_LINKS)) {
+                this.findRemoved(child, names, removed);
+            }
+        }
+    }
+
+    /**
+     * Renames the contents of source into the watched folder and the given
+     * paths relative to it out of it. Everything replaced or removed goes to a
+     * new undo directory, along with the list of paths which did not exist
+     * before. If a rename fails, those done already are reverted.
+     */
+    private void apply(Path source, List<Path> removed) throws IOException {
+        Files.createDirectories(this.live);
+        var contents = Files.createDirectories(this.undo.resolve(UNDO_CONTENTS));
+        var moves = new Moves();
+        var added = new ArrayList<String>();
+        try {
+            for (var path : removed) {
+                if (Files.exists(this.live.resolve(path), LinkOption.NOFOLLOW_LINKS)) {
+                    this.displace(path, contents, moves);
+                }
+            }
+            if (Files.isDirectory(source)) {
+                this.apply(source, source, contents, moves, added);
+            }
+            Files.write(this.undo.resolve(UNDO_ADDED), added, StandardCharsets.UTF_8);
+        } catch (IOException ex) {
+            moves.revert(ex);
+            if (ex.getSuppressed().length == 0) {
+                // Only empty directories are left, which must not be taken as undo point.
+                deleteRecursively(this.undo);
+            }
+            throw ex;
+        }
+    }
+
+    private void apply(Path source, Path dir, Path contents, Moves moves, List<String> added) throws IOException {
+        for (var child : list(dir)) {
+            var relative = source.relativize(child);
+            var livePath = this.live.resolve(relative.toString());
+            if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)
+                    && Files.isDirectory(livePath, LinkOption.NOFOLLOW_LINKS)) {
+                this.apply(source, child, contents, moves, added);
+                continue;
+            } else if (Files.exists(livePath, LinkOption.NOFOLLOW_LINKS)) {
+                this.displace(relative, contents, moves);
+            } else {
+                added.add(relative.toString().replace(relative.getFileSystem().getSeparator(), "/"));
+            }
+            moves.move(child, livePath);
+        }
+    }
+
+    /**
+     * Renames the given path relative to the watched folder into the undo
+     * directory.
+     */
+    private void displace(Path relative, Path contents, Moves moves) throws IOException {
+        var target = contents.resolve(relative.toString());
+        Files.createDirectories(target.getParent());
+        moves.move(this.live.resolve(relative.toString()), target);
+    }
+
+    /**
+     * Lists the children of a directory before any of them is renamed.
+     */
+    private static List<Path> list(Path dir) throws IOException {
+        var children = new ArrayList<Path>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            stream.forEach(children::add);
+        }
+        return children;
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            try (DirectoryStream<Path> children = Files.newDirectoryStream(path)) {
+                for (var child : children) {
+                    deleteRecursively(child);
+                }
+            }
+        }
+        Files.deleteIfExists(path);
+    }
+}
@@ -0,0 +1,79 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Output stream which keeps its data in memory up to a threshold and moves it
+ * to a temporary file beyond that, so that many of them can be held at once
+ * without the heap usage depending on the data size. Closing the buffer
+ * deletes the temporary file, {@link #finish()} only ends writing.
+ */
+class SpillBuffer extends OutputStream {
+    private final Path directory;
+    private final int threshold;
+    private byte[] data = new byte[8 * 1024];
+    private int length = 0;
+    private Path file;
+    private OutputStream fileStream;
+    private long size = 0;
+
+    SpillBuffer(Path directory, int threshold) {
+        this.directory = directory;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        this.write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.fileStream == null && this.threshold < this.length + len) {
+            this.file = Files.createTempFile(this.directory, ".spill", ".tmp");
+            this.fileStream = Files.newOutputStream(this.file);
+            this.fileStream.write(this.data, 0, this.length);
+            this.data = null;
+        }
+        if (this.fileStream != null) {
+            this.fileStream.write(b, off, len);
+        } else {
+            if (this.data.length < this.length + len) {
+                this.data = Arrays.copyOf(this.data, Math.max(this.length + len, 2 * this.data.length));
+            }
+            System.arraycopy(b, off, this.data, this.length, len);
+            this.length += len;
+        }
+        this.size += len;
+    }
+
+    void finish() throws IOException {
+        if (this.fileStream != null) {
+            this.fileStream.close();
+        }
+    }
+
+    long size() {
+        return this.size;
+    }
+
+    InputStream openInputStream() throws IOException {
+        return this.file != null ? Files.newInputStream(this.file)
+                : new ByteArrayInputStream(this.data, 0, this.length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.finish();
+        this.data = null;
+        if (this.file != null) {
+            Files.deleteIfExists(this.file);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Loads the thumbnails of backups on a background thread and keeps the most
+ * recently used ones up to a budget of decoded bytes. Must only be used from
+ * the event queue, which is also where the callbacks are run.
+ */
+public class ThumbnailCache {
+    private static final Metrics.Histogram DECODE_TIME = Metrics.histogram("thumbnail.decodeTime", "ms");
+    private static final Metrics.Histogram SIDECAR_READ_TIME = Metrics.histogram("thumbnail.sidecarReadTime", "ms");
+
+    private final int maxWidth;
+    private final int maxHeight;
+    private final long byteBudget;
+    private final Executor eventQueue;
+    private final BackupMetadataCache metadataCache;
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        var thread = new Thread(r, "Thumbnail loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final LinkedHashMap<Backup, Optional<BufferedImage>> thumbnails = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Backup, List<Consumer<Optional<BufferedImage>>>> pending = new HashMap<>();
+    private long usedBytes = 0;
+    // Only accessed by the loader.
+    private boolean savePending = false;
+
+    /**
+     * @param metadataCache Sidecar cache holding the thumbnails of earlier runs.
+     */
+    ThumbnailCache(int maxWidth, int maxHeight, long byteBudget, Executor eventQueue,
+            BackupMetadataCache metadataCache) {
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+        this.byteBudget = byteBudget;
+        this.eventQueue = eventQueue;
+        this.metadataCache = metadataCache;
+    }
+
+    private static long sizeOf(Optional<BufferedImage> thumbnail) {
+        return thumbnail.map(i -> 4L * i.getWidth() * i.getHeight()).orElse(0L);
+    }
+
+    /**
+     * Passes the thumbnail of the given backup, or an empty optional if it has
+     * none, to the callback. The callback is run right away if the thumbnail is
+     * cached and once it has been loaded otherwise.
+     */
+    public void get(Backup backup, Consumer<Optional<BufferedImage>> callback) {
+        var thumbnail = this.thumbnails.get(backup);
+        if (thumbnail != null) {
+            callback.accept(thumbnail);
+            return;
+        }
+        var callbacks = this.pending.get(backup);
+        if (callbacks != null) {
+            callbacks.add(callback);
+            return;
+        }
+        callbacks = new ArrayList<>();
+        callbacks.add(callback);
+        this.pending.put(backup, callbacks);
+        this.loader.execute(() -> {
+            Optional<BufferedImage> loaded;
+            try {
+                var file = backup.getFile();
+                long beg = System.nanoTime();
+                var event = new PipelineEvents.ThumbnailDecoded();
+                event.begin();
+                loaded = this.metadataCache.getThumbnail(file);
+                boolean fromSidecar = loaded != null;
+                if (!fromSidecar) {
+                    loaded = backup.readThumbnail(this.maxWidth, this.maxHeight);
+                }
+                event.end();
+                (fromSidecar ? SIDECAR_READ_TIME : DECODE_TIME)
+                        .record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - beg));
+                if (event.shouldCommit()) {
+                    event.backup = backup.getName();
+                    event.fromSidecar = fromSidecar;
+                    event.commit();
+                }
+                if (!fromSidecar) {
+                    this.metadataCache.putThumbnail(file, loaded);
+                    this.scheduleSave();
+                }
+            } catch (IOException | RuntimeException ex) {
+                ex.printStackTrace();
+                loaded = Optional.empty();
+            }
+            var result = loaded;
+            this.eventQueue.execute(() -> this.put(backup, result));
+        });
+    }
+
+    /**
+     * Saves the sidecar cache once the thumbnails queued so far are loaded, so
+     * it is written once per batch rather than once per thumbnail. Must be
+     * called by the loader.
+     */
+    private void scheduleSave() {
+        if (!this.savePending && !this.loader.isShutdown()) {
+            this.savePending = true;
+            this.loader.execute(() -> {
+                this.savePending = false;
+                this.metadataCache.save();
+            });
+        }
+    }
+
+    private void put(Backup backup, Optional<BufferedImage> thumbnail) {
+        var callbacks = this.pending.remove(backup);
+        if (callbacks == null) {
+            // Invalidated while loading.
+            return;
+        }
+        this.thumbnails.put(backup, thumbnail);
+        this.usedBytes += sizeOf(thumbnail);
+        var it = this.thumbnails.entrySet().iterator();
+        while (this.byteBudget < this.usedBytes && it.hasNext()) {
+            var eldest = it.next();
+            if (eldest.getKey() != backup) {
+                this.usedBytes -= sizeOf(eldest.getValue());
+                it.remove();
+            }
+        }
+        callbacks.forEach(c -> c.accept(thumbnail));
+    }
+
+    public void invalidate(Backup backup) {
+        var thumbnail = this.thumbnails.remove(backup);
+        if (thumbnail != null) {
+            this.usedBytes -= sizeOf(thumbnail);
+        }
+        this.pending.remove(backup);
+    }
+
+    /**
+     * Stops loading thumbnails and saves those loaded so far.
+     */
+    public void shutdown() {
+        this.loader.shutdownNow();
+        this.metadataCache.save();
+    }
+}
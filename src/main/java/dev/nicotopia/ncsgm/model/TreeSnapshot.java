@@ -0,0 +1,68 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Cheap summary of a folder tree built from the names, sizes and modification
+ * times of its entries. Two snapshots are equal if nothing in the tree was
+ * added, removed, resized or touched in between.
+ */
+public record TreeSnapshot(int entryCount, long totalSize, long lastModified, long fingerprint) {
+    public static final TreeSnapshot EMPTY = new TreeSnapshot(0, 0, -1, 0);
+
+    public static TreeSnapshot of(Path root) {
+        if (!Files.isDirectory(root)) {
+            return EMPTY;
+        }
+        var visitor = new SimpleFileVisitor<Path>() {
+            int entryCount = 0;
+            long totalSize = 0;
+            long lastModified = -1;
+            long fingerprint = 0;
+
+            private void add(Path path, BasicFileAttributes attrs) {
+                long mtime = attrs.lastModifiedTime().toMillis();
+                ++this.entryCount;
+                this.totalSize += attrs.isDirectory() ? 0 : attrs.size();
+                this.lastModified = Math.max(this.lastModified, mtime);
+                // Summing keeps the fingerprint independent of the directory listing order.
+                this.fingerprint += mix(root.relativize(path).toString().hashCode() * 0x9E3779B97F4A7C15L
+                        ^ attrs.size() * 0xC2B2AE3D27D4EB4FL ^ mtime);
+            }
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                this.add(dir, attrs);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                this.add(file, attrs);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return FileVisitResult.CONTINUE;
+            }
+        };
+        try {
+            Files.walkFileTree(root, visitor);
+        } catch (IOException ex) {
+            return EMPTY;
+        }
+        return new TreeSnapshot(visitor.entryCount, visitor.totalSize, visitor.lastModified, visitor.fingerprint);
+    }
+
+    private static long mix(long v) {
+        v = (v ^ (v >>> 33)) * 0xFF51AFD7ED558CCDL;
+        v = (v ^ (v >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        return v ^ (v >>> 33);
+    }
+}
@@ -0,0 +1,294 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Minimal zip writer. Unlike {@link java.util.zip.ZipOutputStream} it can take
+ * entries whose data has been compressed already, e.g. copied raw from another
+ * archive, in addition to deflating streamed entries itself. Writes zip64
+ * records where needed.
+ */
+class ZipArchiveWriter implements Closeable {
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int FLAG_DATA_DESCRIPTOR = 0x08;
+    private static final int FLAG_UTF8 = 0x800;
+
+    private record CentralRecord(byte[] name, int flags, int method, long dosTime, long crc, long compressedSize,
+            long size, long offset) {
+        boolean isZip64() {
+            return ZIP64_MAGIC <= this.compressedSize || ZIP64_MAGIC <= this.size || ZIP64_MAGIC <= this.offset;
+        }
+    }
+
+    private final OutputStream out;
+    private final Deflater deflater;
+    private final List<CentralRecord> records = new ArrayList<>();
+    private byte[] comment = new byte[0];
+    private long position = 0;
+    private boolean entryOpen = false;
+
+    ZipArchiveWriter(Path file, int level) throws IOException {
+        this.out = new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024);
+        this.deflater = new Deflater(level, true);
+    }
+
+    void setComment(String comment) {
+        this.comment = comment.getBytes(StandardCharsets.UTF_8);
+        if (0xFFFF < this.comment.length) {
+            throw new IllegalArgumentException("Zip comment too long.");
+        }
+    }
+
+    long getPosition() {
+        return this.position;
+    }
+
+    static long toDosTime(long time) {
+        var d = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.systemDefault());
+        int year = Math.min(Math.max(d.getYear(), 1980), 2107) - 1980;
+        return ((long) year << 25 | d.getMonthValue() << 21 | d.getDayOfMonth() << 16 | d.getHour() << 11
+                | d.getMinute() << 5 | d.getSecond() >> 1) & 0xFFFFFFFFL;
+    }
+
+    void putDirectory(String name, long time) throws IOException {
+        this.putRaw(name, toDosTime(time), ZipEntry.STORED, 0, 0, 0, InputStream.nullInputStream());
+    }
+
+    /**
+     * Writes an entry whose data is given already in its final, possibly
+     * compressed form. Exactly compressedSize bytes are read from data.
+     */
+    void putRaw(String name, long dosTime, int method, long crc, long compressedSize, long size, InputStream data)
+            throws IOException {
+        this.checkNoEntryOpen();
+        var record = new CentralRecord(name.getBytes(StandardCharsets.UTF_8), FLAG_UTF8, method, dosTime, crc,
+                compressedSize, size, this.position);
+        boolean zip64 = ZIP64_MAGIC <= compressedSize || ZIP64_MAGIC <= size;
+        this.writeInt(0x04034b50);
+        this.writeShort(zip64 ? 45 : 20);
+        this.writeShort(record.flags());
+        this.writeShort(method);
+        this.writeInt(dosTime);
+        this.writeInt(crc);
+        this.writeInt(zip64 ? ZIP64_MAGIC : compressedSize);
+        this.writeInt(zip64 ? ZIP64_MAGIC : size);
+        this.writeShort(record.name().length);
+        this.writeShort(zip64 ? 20 : 0);
+        this.writeBytes(record.name(), 0, record.name().length);
+        if (zip64) {
+            this.writeShort(0x0001);
+            this.writeShort(16);
+            this.writeLong(size);
+            this.writeLong(compressedSize);
+        }
+        byte[] buffer = new byte[(int) Math.min(64 * 1024, Math.max(1, compressedSize))];
+        long remaining = compressedSize;
+        while (0 < remaining) {
+            int read = data.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read == -1) {
+                throw new IOException("Unexpected end of data for zip entry " + name);
+            }
+            this.writeBytes(buffer, 0, read);
+            remaining -= read;
+        }
+        this.records.add(record);
+    }
+
+    /**
+     * Starts a deflated entry whose data is written to the returned stream.
+     * Closing the stream completes the entry. Sizes and CRC are stored in a data
+     * descriptor after the data.
+     */
+    OutputStream putDeflated(String name, long time) throws IOException {
+        this.checkNoEntryOpen();
+        var nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        long offset = this.position;
+        long dosTime = toDosTime(time);
+        int flags = FLAG_UTF8 | FLAG_DATA_DESCRIPTOR;
+        this.writeInt(0x04034b50);
+        this.writeShort(20);
+        this.writeShort(flags);
+        this.writeShort(ZipEntry.DEFLATED);
+        this.writeInt(dosTime);
+        this.writeInt(0);
+        this.writeInt(0);
+        this.writeInt(0);
+        this.writeShort(nameBytes.length);
+        this.writeShort(0);
+        this.writeBytes(nameBytes, 0, nameBytes.length);
+        this.entryOpen = true;
+        this.deflater.reset();
+        return new OutputStream() {
+            private final CRC32 crc = new CRC32();
+            private final byte[] buffer = new byte[64 * 1024];
+            private boolean closed = false;
+
+            @Override
+            public void write(int b) throws IOException {
+                this.write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                this.crc.update(b, off, len);
+                var deflater = ZipArchiveWriter.this.deflater;
+                deflater.setInput(b, off, len);
+                while (!deflater.needsInput()) {
+                    this.drain();
+                }
+            }
+
+            private void drain() throws IOException {
+                int deflated = ZipArchiveWriter.this.deflater.deflate(this.buffer);
+                ZipArchiveWriter.this.writeBytes(this.buffer, 0, deflated);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (this.closed) {
+                    return;
+                }
+                this.closed = true;
+                var deflater = ZipArchiveWriter.this.deflater;
+                deflater.finish();
+                while (!deflater.finished()) {
+                    this.drain();
+                }
+                var record = new CentralRecord(nameBytes, flags, ZipEntry.DEFLATED, dosTime, this.crc.getValue(),
+                        deflater.getBytesWritten(), deflater.getBytesRead(), offset);
+                ZipArchiveWriter.this.writeInt(0x08074b50);
+                ZipArchiveWriter.this.writeInt(record.crc());
+                if (ZIP64_MAGIC <= record.compressedSize() || ZIP64_MAGIC <= record.size()) {
+                    ZipArchiveWriter.this.writeLong(record.compressedSize());
+                    ZipArchiveWriter.this.writeLong(record.size());
+                } else {
+                    ZipArchiveWriter.this.writeInt(record.compressedSize());
+                    ZipArchiveWriter.this.writeInt(record.size());
+                }
+                ZipArchiveWriter.this.records.add(record);
+                ZipArchiveWriter.this.entryOpen = false;
+            }
+        };
+    }
+
+    private void checkNoEntryOpen() {
+        if (this.entryOpen) {
+            throw new IllegalStateException("Previous zip entry has not been closed.");
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.checkNoEntryOpen();
+            long cenOffset = this.position;
+            for (var record : this.records) {
+                this.writeCentralRecord(record);
+            }
+            long cenSize = this.position - cenOffset;
+            int count = this.records.size();
+            if (0xFFFF <= count || ZIP64_MAGIC <= cenOffset || ZIP64_MAGIC <= cenSize) {
+                long zip64EndOffset = this.position;
+                this.writeInt(0x06064b50);
+                this.writeLong(44);
+                this.writeShort(45);
+                this.writeShort(45);
+                this.writeInt(0);
+                this.writeInt(0);
+                this.writeLong(count);
+                this.writeLong(count);
+                this.writeLong(cenSize);
+                this.writeLong(cenOffset);
+                this.writeInt(0x07064b50);
+                this.writeInt(0);
+                this.writeLong(zip64EndOffset);
+                this.writeInt(1);
+            }
+            this.writeInt(0x06054b50);
+            this.writeShort(0);
+            this.writeShort(0);
+            this.writeShort(Math.min(count, 0xFFFF));
+            this.writeShort(Math.min(count, 0xFFFF));
+            this.writeInt(Math.min(cenSize, ZIP64_MAGIC));
+            this.writeInt(Math.min(cenOffset, ZIP64_MAGIC));
+            this.writeShort(this.comment.length);
+            this.writeBytes(this.comment, 0, this.comment.length);
+        } finally {
+            this.deflater.end();
+            this.out.close();
+        }
+    }
+
+    private void writeCentralRecord(CentralRecord record) throws IOException {
+        boolean zip64 = record.isZip64();
+        int extraLength = zip64 ? 4 + (ZIP64_MAGIC <= record.size() ? 8 : 0)
+                + (ZIP64_MAGIC <= record.compressedSize() ? 8 : 0) + (ZIP64_MAGIC <= record.offset() ? 8 : 0) : 0;
+        boolean directory = record.name().length != 0 && record.name()[record.name().length - 1] == '/';
+        this.writeInt(0x02014b50);
+        this.writeShort(zip64 ? 45 : 20);
+        this.writeShort(zip64 ? 45 : 20);
+        this.writeShort(record.flags());
+        this.writeShort(record.method());
+        this.writeInt(record.dosTime());
+        this.writeInt(record.crc());
+        this.writeInt(Math.min(record.compressedSize(), ZIP64_MAGIC));
+        this.writeInt(Math.min(record.size(), ZIP64_MAGIC));
+        this.writeShort(record.name().length);
+        this.writeShort(extraLength);
+        this.writeShort(0);
+        this.writeShort(0);
+        this.writeShort(0);
+        this.writeInt(directory ? 0x10 : 0);
+        this.writeInt(Math.min(record.offset(), ZIP64_MAGIC));
+        this.writeBytes(record.name(), 0, record.name().length);
+        if (zip64) {
+            this.writeShort(0x0001);
+            this.writeShort(extraLength - 4);
+            if (ZIP64_MAGIC <= record.size()) {
+                this.writeLong(record.size());
+            }
+            if (ZIP64_MAGIC <= record.compressedSize()) {
+                this.writeLong(record.compressedSize());
+            }
+            if (ZIP64_MAGIC <= record.offset()) {
+                this.writeLong(record.offset());
+            }
+        }
+    }
+
+    private void writeBytes(byte[] b, int off, int len) throws IOException {
+        this.out.write(b, off, len);
+        this.position += len;
+    }
+
+    private void writeShort(int v) throws IOException {
+        this.out.write(v & 0xFF);
+        this.out.write((v >>> 8) & 0xFF);
+        this.position += 2;
+    }
+
+    private void writeInt(long v) throws IOException {
+        this.writeShort((int) (v & 0xFFFF));
+        this.writeShort((int) ((v >>> 16) & 0xFFFF));
+    }
+
+    private void writeLong(long v) throws IOException {
+        this.writeInt(v & 0xFFFFFFFFL);
+        this.writeInt(v >>> 32);
+    }
+}
@@ -0,0 +1,91 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+class ZipBackupReader implements BackupReader {
+    private final File file;
+    private final ZipFile zipFile;
+    private final List<BackupEntry> entries;
+    private FileChannel channel;
+    private ZipCentralDirectory centralDirectory;
+
+    ZipBackupReader(File file) throws IOException {
+        this.file = file;
+        this.zipFile = new ZipFile(file);
+        this.entries = this.zipFile.stream()
+                .map(e -> new BackupEntry(e.getName(), e.isDirectory(), e.getSize(), e.getCrc(), e.getTime()))
+                .collect(Collectors.toUnmodifiableList());
+    }
+
+    @Override
+    public List<BackupEntry> getEntries() {
+        return this.entries;
+    }
+
+    @Override
+    public InputStream getInputStream(BackupEntry entry) throws IOException {
+        var zipEntry = this.zipFile.getEntry(entry.name());
+        if (zipEntry == null) {
+            throw new FileNotFoundException(entry.name());
+        }
+        return new CheckedInputStream(this.zipFile.getInputStream(zipEntry), new CRC32()) {
+            // ZipFile does not verify the CRC itself.
+            private boolean verified = false;
+
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b == -1) {
+                    this.verify();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                int read = super.read(buf, off, len);
+                if (read == -1) {
+                    this.verify();
+                }
+                return read;
+            }
+
+            private void verify() throws IOException {
+                if (!this.verified && zipEntry.getCrc() != -1 && this.getChecksum().getValue() != zipEntry.getCrc()) {
+                    throw new ZipException("CRC mismatch in " + zipEntry.getName());
+                }
+                this.verified = true;
+            }
+        };
+    }
+
+    ZipCentralDirectory getCentralDirectory() throws IOException {
+        if (this.centralDirectory == null) {
+            this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.READ);
+            this.centralDirectory = new ZipCentralDirectory(this.channel);
+        }
+        return this.centralDirectory;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.zipFile.close();
+        } finally {
+            if (this.channel != null) {
+                this.channel.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.HexFormat;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+class ZipBackupWriter implements BackupWriter {
+    private static final int SPILL_THRESHOLD = 1024 * 1024;
+
+    /**
+     * A prepared file whose data is either deflated into a spill buffer or, if
+     * data is null, stored and read from the source file again when put.
+     */
+    private record Prepared(String name, long dosTime, long crc, long size, SpillBuffer data, File source,
+            String hash) implements PreparedFile {
+        @Override
+        public String getHash() {
+            return this.hash;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (this.data != null) {
+                this.data.close();
+            }
+        }
+    }
+
+    private final File file;
+    private final Configuration.Compression compression;
+    private final ZipArchiveWriter archive;
+    private final byte[] buffer = new byte[64 * 1024];
+
+    ZipBackupWriter(File file, Configuration.Compression compression, String comment) throws IOException {
+        this.file = file;
+        this.compression = compression;
+        this.archive = new ZipArchiveWriter(file.toPath(), compression.level());
+        this.archive.setComment(comment);
+    }
+
+    private boolean isStored(File file) throws IOException {
+        return switch (this.compression.codec()) {
+        case STORED -> true;
+        case DEFLATE -> false;
+        case AUTO -> Compressibility.isIncompressible(file);
+        };
+    }
+
+    @Override
+    public void putDirectory(String name, long lastModified) throws IOException {
+        this.archive.putDirectory(name, lastModified);
+    }
+
+    @Override
+    public String putFile(String name, File file, long lastModified, IntConsumer onProgress) throws IOException {
+        if (this.isStored(file)) {
+            var prepared = this.scan(name, file, lastModified, this.buffer, onProgress);
+            this.putPrepared(prepared);
+            return prepared.hash();
+        }
+        var digest = FileIndex.newDigest();
+        try (var is = new FileInputStream(file); var os = this.archive.putDeflated(name, lastModified)) {
+            FolderBackupManager.copy(is, os, this.buffer, read -> {
+                digest.update(this.buffer, 0, read);
+                onProgress.accept(read);
+            });
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    @Override
+    public PreparedFile prepareFile(String name, File file, long lastModified, IntConsumer onProgress)
+            throws IOException {
+        var buffer = new byte[64 * 1024];
+        if (this.isStored(file)) {
+            return this.scan(name, file, lastModified, buffer, onProgress);
+        }
+        var data = new SpillBuffer(this.file.toPath().getParent(), SPILL_THRESHOLD);
+        var crc = new CRC32();
+        var digest = FileIndex.newDigest();
+        var deflater = new Deflater(this.compression.level(), true);
+        long size = 0;
+        try (var is = new FileInputStream(file)) {
+            var dos = new DeflaterOutputStream(data, deflater, buffer.length);
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                digest.update(buffer, 0, read);
+                dos.write(buffer, 0, read);
+                size += read;
+                onProgress.accept(read);
+            }
+            dos.finish();
+            data.finish();
+        } catch (IOException | RuntimeException ex) {
+            data.close();
+            throw ex;
+        } finally {
+            deflater.end();
+        }
+        long dosTime = ZipArchiveWriter.toDosTime(lastModified);
+        var hash = HexFormat.of().formatHex(digest.digest());
+        if (this.compression.codec() == CompressionCodec.AUTO && size <= data.size()) {
+            // Sampling missed that the file does not compress.
+            data.close();
+            return new Prepared(name, dosTime, crc.getValue(), size, null, file, hash);
+        }
+        return new Prepared(name, dosTime, crc.getValue(), size, data, null, hash);
+    }
+
+    /**
+     * Reads a file to be stored once to compute its CRC and hash, which have to
+     * be known before its data is written.
+     */
+    private Prepared scan(String name, File file, long lastModified, byte[] buffer, IntConsumer onProgress)
+            throws IOException {
+        var crc = new CRC32();
+        var digest = FileIndex.newDigest();
+        long size = 0;
+        try (var is = new FileInputStream(file)) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                digest.update(buffer, 0, read);
+                size += read;
+                onProgress.accept(read);
+            }
+        }
+        return new Prepared(name, ZipArchiveWriter.toDosTime(lastModified), crc.getValue(), size, null, file,
+                HexFormat.of().formatHex(digest.digest()));
+    }
+
+    @Override
+    public void putPrepared(PreparedFile file) throws IOException {
+        var prepared = (Prepared) file;
+        if (prepared.data() != null) {
+            try (var is = prepared.data().openInputStream()) {
+                this.archive.putRaw(prepared.name(), prepared.dosTime(), ZipEntry.DEFLATED, prepared.crc(),
+                        prepared.data().size(), prepared.size(), is);
+            }
+            return;
+        }
+        try (var is = new CheckedInputStream(new FileInputStream(prepared.source()), new CRC32())) {
+            this.archive.putRaw(prepared.name(), prepared.dosTime(), ZipEntry.STORED, prepared.crc(),
+                    prepared.size(), prepared.size(), is);
+            if (is.getChecksum().getValue() != prepared.crc() || is.read() != -1) {
+                throw new IOException(prepared.source() + " has been modified during the backup.");
+            }
+        }
+    }
+
+    @Override
+    public void putCopy(BackupReader source, BackupEntry entry) throws IOException {
+        if (!(source instanceof ZipBackupReader zipSource)) {
+            throw new IllegalArgumentException("Zip entries can only be copied from zip backups.");
+        }
+        var centralDirectory = zipSource.getCentralDirectory();
+        var raw = centralDirectory.getEntries().get(entry.name());
+        if (raw == null) {
+            throw new FileNotFoundException(entry.name());
+        }
+        this.archive.putRaw(raw.name(), raw.dosTime(), raw.method(), raw.crc(), raw.compressedSize(), raw.size(),
+                centralDirectory.openRaw(raw));
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return this.archive.getPosition();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.archive.close();
+    }
+}
@@ -0,0 +1,138 @@
+package dev.nicotopia.ncsgm.model;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory of a zip file, including the local header
+ * offsets {@link java.util.zip.ZipFile} does not expose, so that entry data can
+ * be copied raw without inflating it.
+ */
+class ZipCentralDirectory {
+    record Entry(String name, int method, long dosTime, long crc, long compressedSize, long size,
+            long localHeaderOffset) {
+    }
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private final FileChannel channel;
+    private final Map<String, Entry> entries = new LinkedHashMap<>();
+
+    ZipCentralDirectory(FileChannel channel) throws IOException {
+        this.channel = channel;
+        long fileSize = channel.size();
+        int tailLength = (int) Math.min(fileSize, 22 + 0xFFFF + 20);
+        var tail = this.read(fileSize - tailLength, tailLength);
+        int endPos = -1;
+        for (int i = tailLength - 22; 0 <= i && endPos == -1; --i) {
+            if (tail.getInt(i) == 0x06054b50 && i + 22 + Short.toUnsignedInt(tail.getShort(i + 20)) == tailLength) {
+                endPos = i;
+            }
+        }
+        if (endPos == -1) {
+            throw new ZipException("End of central directory not found.");
+        }
+        long count = Short.toUnsignedLong(tail.getShort(endPos + 10));
+        long cenSize = Integer.toUnsignedLong(tail.getInt(endPos + 12));
+        long cenOffset = Integer.toUnsignedLong(tail.getInt(endPos + 16));
+        if ((count == 0xFFFF || cenSize == ZIP64_MAGIC || cenOffset == ZIP64_MAGIC) && 20 <= endPos
+                && tail.getInt(endPos - 20) == 0x07064b50) {
+            var zip64End = this.read(tail.getLong(endPos - 12), 56);
+            if (zip64End.getInt(0) != 0x06064b50) {
+                throw new ZipException("Invalid zip64 end of central directory.");
+            }
+            count = zip64End.getLong(32);
+            cenSize = zip64End.getLong(40);
+            cenOffset = zip64End.getLong(48);
+        }
+        if (Integer.MAX_VALUE < cenSize) {
+            throw new ZipException("Central directory too large.");
+        }
+        var cen = this.read(cenOffset, (int) cenSize);
+        int pos = 0;
+        for (long i = 0; i < count; ++i) {
+            if (cen.getInt(pos) != 0x02014b50) {
+                throw new ZipException("Invalid central directory header.");
+            }
+            int method = Short.toUnsignedInt(cen.getShort(pos + 10));
+            long dosTime = Integer.toUnsignedLong(cen.getInt(pos + 12));
+            long crc = Integer.toUnsignedLong(cen.getInt(pos + 16));
+            long compressedSize = Integer.toUnsignedLong(cen.getInt(pos + 20));
+            long size = Integer.toUnsignedLong(cen.getInt(pos + 24));
+            int nameLength = Short.toUnsignedInt(cen.getShort(pos + 28));
+            int extraLength = Short.toUnsignedInt(cen.getShort(pos + 30));
+            int commentLength = Short.toUnsignedInt(cen.getShort(pos + 32));
+            long offset = Integer.toUnsignedLong(cen.getInt(pos + 42));
+            var nameBytes = new byte[nameLength];
+            cen.get(pos + 46, nameBytes);
+            int extraPos = pos + 46 + nameLength;
+            int extraEnd = extraPos + extraLength;
+            while (extraPos + 4 <= extraEnd) {
+                int id = Short.toUnsignedInt(cen.getShort(extraPos));
+                int length = Short.toUnsignedInt(cen.getShort(extraPos + 2));
+                if (id == 0x0001) {
+                    int fieldPos = extraPos + 4;
+                    if (size == ZIP64_MAGIC) {
+                        size = cen.getLong(fieldPos);
+                        fieldPos += 8;
+                    }
+                    if (compressedSize == ZIP64_MAGIC) {
+                        compressedSize = cen.getLong(fieldPos);
+                        fieldPos += 8;
+                    }
+                    if (offset == ZIP64_MAGIC) {
+                        offset = cen.getLong(fieldPos);
+                    }
+                }
+                extraPos += 4 + length;
+            }
+            var name = new String(nameBytes, StandardCharsets.UTF_8);
+            this.entries.put(name, new Entry(name, method, dosTime, crc, compressedSize, size, offset));
+            pos = extraEnd + commentLength;
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        var buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer, position + buffer.position()) == -1) {
+                throw new EOFException();
+            }
+        }
+        return buffer.flip();
+    }
+
+    Map<String, Entry> getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * Returns a stream of the raw, still compressed data of the given entry. The
+     * stream shares the channel's position, so only one of them may be used at
+     * a time.
+     */
+    InputStream openRaw(Entry entry) throws IOException {
+        var header = this.read(entry.localHeaderOffset(), 30);
+        if (header.getInt(0) != 0x04034b50) {
+            throw new ZipException("Invalid local header for " + entry.name());
+        }
+        long dataOffset = entry.localHeaderOffset() + 30 + Short.toUnsignedInt(header.getShort(26))
+                + Short.toUnsignedInt(header.getShort(28));
+        this.channel.position(dataOffset);
+        return new FilterInputStream(Channels.newInputStream(this.channel)) {
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
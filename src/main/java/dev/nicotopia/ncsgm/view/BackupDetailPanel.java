@@ -3,31 +3,74 @@ package dev.nicotopia.ncsgm.view;
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
+import java.awt.FlowLayout;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.io.IOException;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
+import javax.swing.JButton;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTree;
+import javax.swing.SwingUtilities;
+import javax.swing.tree.DefaultMutableTreeNode;
+import javax.swing.tree.DefaultTreeModel;
 
 import dev.nicotopia.ncsgm.model.Backup;
+import dev.nicotopia.ncsgm.model.BackupEntry;
+import dev.nicotopia.ncsgm.model.ThumbnailCache;
 
 public class BackupDetailPanel extends JPanel implements PropertyChangeListener {
     private static final DateTimeFormatter FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
             .withZone(ZoneId.systemDefault());
+    private static final ExecutorService ENTRY_LOADER = Executors.newSingleThreadExecutor(r -> {
+        var thread = new Thread(r, "Backup entries");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Node of the entry tree, labeled with the last element of its name. The
+     * entry is null for folders which have no entry of their own.
+     */
+    private record EntryNode(String label, BackupEntry entry) {
+        @Override
+        public String toString() {
+            return this.label;
+        }
+    }
 
-    private Backup backup;
+    private volatile Backup backup;
+    private final ThumbnailCache thumbnailCache;
+    private final Consumer<BackupEntry> onRestoreEntry;
     private final ImageComponent imgComp = new ImageComponent();
     private final JPanel propertyPnl = new JPanel(new GridBagLayout());
-
-    public BackupDetailPanel() {
+    private final JTree entryTree = new JTree(new DefaultTreeModel(null));
+    private final JButton restoreEntryBtn = new JButton("Restore file");
+
+    /**
+     * @param onRestoreEntry Called with the file selected in the entry tree to
+     *                       restore it.
+     */
+    public BackupDetailPanel(ThumbnailCache thumbnailCache, Consumer<BackupEntry> onRestoreEntry) {
+        this.thumbnailCache = thumbnailCache;
+        this.onRestoreEntry = onRestoreEntry;
         this.setBorder(BorderFactory.createEmptyBorder(0, 8, 8, 8));
 
         this.imgComp.setPreferredSize(new Dimension(640, 360));
@@ -35,13 +78,39 @@ public class BackupDetailPanel extends JPanel implements PropertyChangeListener
         this.addProperty("Name");
         this.addProperty("Timestamp");
         this.addProperty("File size");
+        this.addProperty("Contents");
 
         this.setLayout(new BoxLayout(this, BoxLayout.Y_AXIS));
         this.add(this.imgComp);
         var temp = new JPanel(new BorderLayout());
         temp.setBorder(BorderFactory.createEmptyBorder(8, 0, 8, 0));
         temp.add(this.propertyPnl, BorderLayout.NORTH);
+        var entryScrollPane = new JScrollPane(this.entryTree);
+        entryScrollPane.setPreferredSize(new Dimension(640, 200));
+        temp.add(entryScrollPane, BorderLayout.CENTER);
+        var entryBtnPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 4));
+        entryBtnPanel.add(this.restoreEntryBtn);
+        temp.add(entryBtnPanel, BorderLayout.SOUTH);
         this.add(temp);
+
+        this.restoreEntryBtn.setEnabled(false);
+        this.restoreEntryBtn.addActionListener(e -> {
+            var entry = this.getSelectedEntry();
+            if (entry != null) {
+                this.onRestoreEntry.accept(entry);
+            }
+        });
+        this.entryTree.addTreeSelectionListener(e -> this.restoreEntryBtn.setEnabled(this.getSelectedEntry() != null));
+    }
+
+    /**
+     * Returns the file selected in the entry tree or null.
+     */
+    private BackupEntry getSelectedEntry() {
+        var path = this.entryTree.getSelectionPath();
+        return path != null && path.getLastPathComponent() instanceof DefaultMutableTreeNode node
+                && node.getUserObject() instanceof EntryNode entryNode && entryNode.entry() != null
+                && !entryNode.entry().directory() ? entryNode.entry() : null;
     }
 
     private void addProperty(String name) {
@@ -72,6 +141,7 @@ public class BackupDetailPanel extends JPanel implements PropertyChangeListener
             }
             this.backup = backup;
             this.updateView();
+            this.updateEntries();
             if (this.backup != null) {
                 this.backup.addPropertyChangeListener(this);
             }
@@ -86,15 +156,92 @@ public class BackupDetailPanel extends JPanel implements PropertyChangeListener
     }
 
     private void updateView() {
-        this.imgComp.setImage(this.backup == null ? null : this.backup.getImage());
+        this.updateImage();
         this.setProperty(0, this.backup == null ? "" : this.backup.getName());
         this.setProperty(1,
                 this.backup == null ? "" : FORMATTER.format(Instant.ofEpochMilli(this.backup.getLastModified())));
         this.setProperty(2, this.backup == null ? "" : formatByteWidth(this.backup.getFileByteWidth()));
+        this.setProperty(3, this.backup == null || this.backup.getEntryCount() == -1 ? ""
+                : String.format("%d entries, %s", this.backup.getEntryCount(),
+                        this.backup.getUncompressedSize() == 0 ? "0 B"
+                                : formatByteWidth(this.backup.getUncompressedSize())));
+    }
+
+    private void updateImage() {
+        var backup = this.backup;
+        this.imgComp.setImage(null);
+        this.imgComp.setPlaceholderText(backup == null ? null : "Loading...");
+        if (backup != null) {
+            this.thumbnailCache.get(backup, thumbnail -> {
+                if (this.backup == backup) {
+                    this.imgComp.setImage(thumbnail.orElse(null));
+                    this.imgComp.setPlaceholderText(thumbnail.isEmpty() ? "No screenshot" : null);
+                }
+            });
+        }
+    }
+
+    /**
+     * Lists the entries of the backup in the background. Only the central
+     * directory or manifest is read, so this is quick even for large backups.
+     */
+    private void updateEntries() {
+        var backup = this.backup;
+        this.entryTree.setModel(new DefaultTreeModel(null));
+        if (backup != null) {
+            ENTRY_LOADER.execute(() -> {
+                if (this.backup != backup) {
+                    return;
+                }
+                DefaultMutableTreeNode root;
+                try {
+                    root = buildEntryTree(backup.listEntries());
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                    root = new DefaultMutableTreeNode("Contents could not be read");
+                }
+                var model = new DefaultTreeModel(root);
+                SwingUtilities.invokeLater(() -> {
+                    if (this.backup == backup) {
+                        this.entryTree.setModel(model);
+                    }
+                });
+            });
+        }
+    }
+
+    /**
+     * Builds the tree of the given entries, whose root is the watched folder.
+     * Folders without entries of their own are added as needed.
+     */
+    private static DefaultMutableTreeNode buildEntryTree(List<BackupEntry> entries) {
+        var root = new DefaultMutableTreeNode();
+        var nodes = new HashMap<String, DefaultMutableTreeNode>();
+        entries.stream().sorted(Comparator.comparing(BackupEntry::name)).forEach(entry -> {
+            var name = entry.directory() ? entry.name().substring(0, entry.name().length() - 1) : entry.name();
+            var node = getEntryNode(root, nodes, name);
+            var label = ((EntryNode) node.getUserObject()).label();
+            node.setUserObject(new EntryNode(entry.directory() ? label
+                    : String.format("%s (%s)", label, entry.size() <= 0 ? "0 B" : formatByteWidth(entry.size())),
+                    entry));
+        });
+        return root.getChildCount() == 1 ? (DefaultMutableTreeNode) root.getChildAt(0) : root;
+    }
+
+    private static DefaultMutableTreeNode getEntryNode(DefaultMutableTreeNode root,
+            Map<String, DefaultMutableTreeNode> nodes, String name) {
+        var node = nodes.get(name);
+        if (node == null) {
+            int slash = name.lastIndexOf('/');
+            node = new DefaultMutableTreeNode(new EntryNode(name.substring(slash + 1), null));
+            (slash == -1 ? root : getEntryNode(root, nodes, name.substring(0, slash))).add(node);
+            nodes.put(name, node);
+        }
+        return node;
     }
 
     @Override
     public void propertyChange(PropertyChangeEvent evt) {
-        this.updateView();
+        SwingUtilities.invokeLater(this::updateView);
     }
 }
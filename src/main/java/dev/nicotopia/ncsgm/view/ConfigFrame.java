@@ -26,12 +26,14 @@ import dev.nicotopia.ncsgm.App;
 import dev.nicotopia.ncsgm.model.Configuration;
 
 public class ConfigFrame extends JFrame {
+    private final Map<String, Configuration> presets;
     private String currentConfigName;
     private JTextField pathToWatchTextField;
     private JTextField backupFolderTextField;
 
     public ConfigFrame(Map<String, Configuration> presets) {
         super("NcSGM | Configuration");
+        this.presets = presets;
         try {
             this.setIconImage(ImageIO.read(App.class.getResourceAsStream("/nicotopia_transparent.png")));
         } catch (IOException ex) {
@@ -98,8 +100,8 @@ public class ConfigFrame extends JFrame {
         okBtn.addActionListener(e -> {
             Configuration config;
             try {
-                config = new Configuration(this.currentConfigName,
-                        Path.of(this.pathToWatchTextField.getText()), Path.of(this.backupFolderTextField.getText()));
+                config = this.createConfig(this.currentConfigName, Path.of(this.pathToWatchTextField.getText()),
+                        Path.of(this.backupFolderTextField.getText()));
             } catch (InvalidPathException ex) {
                 JOptionPane.showMessageDialog(this, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
                 return;
@@ -145,13 +147,19 @@ public class ConfigFrame extends JFrame {
         return true;
     }
 
+    private Configuration createConfig(String name, Path pathToWatch, Path backupFolder) {
+        var preset = this.presets.get(name);
+        return preset != null ? preset.withPaths(pathToWatch, backupFolder)
+                : new Configuration(name, pathToWatch, backupFolder);
+    }
+
     private Configuration getLastConfig() {
         String name = Preferences.userNodeForPackage(App.class).get("name", null);
         String pathToWatch = Preferences.userNodeForPackage(App.class).get("pathToWatch", null);
         String backupFolder = Preferences.userNodeForPackage(App.class).get("backupFolder", null);
         if (name != null && pathToWatch != null && backupFolder != null) {
             try {
-                return new Configuration(name, Path.of(pathToWatch), Path.of(backupFolder));
+                return this.createConfig(name, Path.of(pathToWatch), Path.of(backupFolder));
             } catch (InvalidPathException ex) {
                 ex.printStackTrace();
             }
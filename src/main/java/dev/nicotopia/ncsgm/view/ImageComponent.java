@@ -9,6 +9,15 @@ import javax.swing.JComponent;
 
 public class ImageComponent extends JComponent {
     private Image image;
+    private String placeholderText;
+
+    /**
+     * Sets the text shown instead of an image, e.g. while it is being loaded.
+     */
+    public void setPlaceholderText(String placeholderText) {
+        this.placeholderText = placeholderText;
+        this.repaint();
+    }
 
     public void setImage(Image image) {
         this.image = image;
@@ -45,6 +54,15 @@ public class ImageComponent extends JComponent {
                 int drawWidth = compHeight * imgWidth / imgHeight;
                 g.drawImage(image, (compWidth - drawWidth) / 2, 0, drawWidth, compHeight, this);
             }
+        } else if (this.placeholderText != null) {
+            var metrics = g.getFontMetrics();
+            int textWidth = metrics.stringWidth(this.placeholderText);
+            g.setColor(Color.DARK_GRAY);
+            g.fillRect((this.getWidth() - textWidth) / 2 - 8, (this.getHeight() - metrics.getHeight()) / 2 - 4,
+                    textWidth + 16, metrics.getHeight() + 8);
+            g.setColor(Color.LIGHT_GRAY);
+            g.drawString(this.placeholderText, (this.getWidth() - textWidth) / 2,
+                    (this.getHeight() - metrics.getHeight()) / 2 + metrics.getAscent());
         }
         super.paint(g);
     }
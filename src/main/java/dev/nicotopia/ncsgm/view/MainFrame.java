@@ -1,14 +1,15 @@
 package dev.nicotopia.ncsgm.view;
 
 import java.awt.BorderLayout;
+import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.Image;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.IOException;
 import java.util.Arrays;
+import java.util.concurrent.CancellationException;
 import java.util.stream.Collectors;
 
 import javax.swing.BoxLayout;
@@ -17,13 +18,17 @@ import javax.swing.JFrame;
 import javax.swing.JList;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
 import javax.swing.ListSelectionModel;
-import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.event.ListDataEvent;
 import javax.swing.event.ListDataListener;
 
 import dev.nicotopia.ncsgm.model.Backup;
+import dev.nicotopia.ncsgm.model.BackupDiff;
+import dev.nicotopia.ncsgm.model.BackupEntry;
 import dev.nicotopia.ncsgm.model.Configuration;
 import dev.nicotopia.ncsgm.model.FolderBackupManager;
 import dev.nicotopia.ncsgm.model.FolderWatcher;
@@ -36,12 +41,17 @@ public class MainFrame extends JFrame {
     private JButton deleteBtn;
     private JButton restoreBtn;
     private JButton renameBtn;
+    private JButton undoRestoreBtn;
+    private JButton compareBtn;
+    private JProgressBar jobProgressBar;
+    private JButton cancelJobBtn;
+    private final Timer jobStatusTimer = new Timer(100, e -> this.updateJobStatus());
     private BackupDetailPanel detailPnl;
 
     public MainFrame(Configuration config, Image iconImage) {
         super("NcSGM | " + config.name());
-        this.folderBackupManager = new FolderBackupManager(config, 10);
-        this.folderWatcher = new FolderWatcher(config.pathToWatch());
+        this.folderBackupManager = new FolderBackupManager(config);
+        this.folderWatcher = new FolderWatcher(config.pathToWatch(), config.debounce());
 
         this.setIconImage(iconImage);
         this.buildFrame();
@@ -52,9 +62,11 @@ public class MainFrame extends JFrame {
             @Override
             public void windowClosing(WindowEvent e) {
                 MainFrame.this.folderWatcher.interrupt(true);
+                MainFrame.this.jobStatusTimer.stop();
+                MainFrame.this.folderBackupManager.shutdown();
             }
         });
-        this.folderWatcher.start(() -> SwingUtilities.invokeLater(this::createBackup));
+        this.folderWatcher.start(this::createBackup);
 
         this.setDefaultCloseOperation(JFrame.DISPOSE_ON_CLOSE);
         this.setVisible(true);
@@ -67,18 +79,37 @@ public class MainFrame extends JFrame {
         this.deleteBtn = new JButton("Delete");
         this.restoreBtn = new JButton("Restore");
         this.renameBtn = new JButton("Rename");
+        this.undoRestoreBtn = new JButton("Undo restore");
+        this.compareBtn = new JButton("Compare");
 
         JPanel btnPanel = new JPanel(new FlowLayout());
         btnPanel.add(this.createBtn);
         btnPanel.add(this.deleteBtn);
         btnPanel.add(this.restoreBtn);
         btnPanel.add(this.renameBtn);
+        btnPanel.add(this.undoRestoreBtn);
+        btnPanel.add(this.compareBtn);
 
-        this.detailPnl = new BackupDetailPanel();
+        this.jobProgressBar = new JProgressBar(0, 1000);
+        this.jobProgressBar.setStringPainted(true);
+        this.jobProgressBar.setVisible(false);
+        this.cancelJobBtn = new JButton("Cancel");
+        this.cancelJobBtn.setVisible(false);
+
+        JPanel jobPanel = new JPanel(new BorderLayout(4, 0));
+        jobPanel.add(this.jobProgressBar, BorderLayout.CENTER);
+        jobPanel.add(this.cancelJobBtn, BorderLayout.EAST);
+
+        var southPanel = new JPanel();
+        southPanel.setLayout(new BoxLayout(southPanel, BoxLayout.Y_AXIS));
+        southPanel.add(btnPanel);
+        southPanel.add(jobPanel);
+
+        this.detailPnl = new BackupDetailPanel(this.folderBackupManager.getThumbnailCache(), this::restoreEntry);
 
         var leftPanel = new JPanel(new BorderLayout());
         leftPanel.add(new JScrollPane(this.backupList), BorderLayout.CENTER);
-        leftPanel.add(btnPanel, BorderLayout.SOUTH);
+        leftPanel.add(southPanel, BorderLayout.SOUTH);
 
         var rightPanel = new JPanel();
         rightPanel.setLayout(new BoxLayout(rightPanel, BoxLayout.Y_AXIS));
@@ -96,18 +127,23 @@ public class MainFrame extends JFrame {
                     "Do you want to restore the following backup?\n"
                             + folderBackupManager.getElementAt(selectedIndices[0]),
                     "Confirm restore", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
-                synchronized (this.folderBackupManager.getConfiguration().pathToWatch()) {
-                    try {
-                        folderBackupManager.restoreBackup(selectedIndices[0]);
-                    } catch (IOException ex) {
-                        MainFrame.this.showError("Backup restoration failed", ex.getMessage());
-                    }
-                    MainFrame.this.folderWatcher.updateLastModified();
-                }
+                this.folderBackupManager.restoreBackup(selectedIndices[0], this.folderWatcher::folderReplaced)
+                        .whenDone((r, ex) -> {
+                            this.undoRestoreBtn.setEnabled(this.folderBackupManager.hasUndoPoint());
+                            this.showJobError("Backup restoration failed", ex);
+                        });
             }
         };
 
-        this.createBtn.addActionListener(e -> this.createBackup());
+        this.createBtn.addActionListener(e -> this.createBackup(-1));
+
+        this.cancelJobBtn.addActionListener(e -> {
+            var job = this.folderBackupManager.getCurrentJob();
+            if (job != null) {
+                job.cancel();
+            }
+        });
+        this.jobStatusTimer.start();
 
         this.deleteBtn.addActionListener(e -> {
             int selectedIndices[] = this.backupList.getSelectedIndices();
@@ -126,21 +162,46 @@ public class MainFrame extends JFrame {
 
         this.restoreBtn.addActionListener(e -> restoreBackup.run());
 
+        this.compareBtn.addActionListener(e -> {
+            var selectedIndices = this.backupList.getSelectedIndices();
+            if (selectedIndices.length == 1) {
+                var backup = this.folderBackupManager.getElementAt(selectedIndices[0]);
+                this.folderBackupManager.compareWithLive(selectedIndices[0]).whenDone((diff, ex) -> {
+                    this.showJobError("Comparison failed", ex);
+                    this.showDiff(backup.getName() + " \u2192 save folder", diff);
+                });
+            } else if (selectedIndices.length == 2) {
+                var from = this.folderBackupManager.getElementAt(selectedIndices[0]);
+                var to = this.folderBackupManager.getElementAt(selectedIndices[1]);
+                this.folderBackupManager.compareBackups(selectedIndices[0], selectedIndices[1])
+                        .whenDone((diff, ex) -> {
+                            this.showJobError("Comparison failed", ex);
+                            this.showDiff(from.getName() + " \u2192 " + to.getName(), diff);
+                        });
+            }
+        });
+
+        this.undoRestoreBtn.addActionListener(e -> {
+            if (JOptionPane.showConfirmDialog(this,
+                    "Do you want to bring back the save folder as it was before the last restore?",
+                    "Confirm undo", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
+                this.folderBackupManager.undoRestore(this.folderWatcher::folderReplaced)
+                        .whenDone((r, ex) -> this.showJobError("Undoing the restore failed", ex));
+            }
+        });
+        this.undoRestoreBtn.setEnabled(this.folderBackupManager.hasUndoPoint());
+
         this.renameBtn.addActionListener(e -> {
             var selectedIndices = this.backupList.getSelectedIndices();
             if (selectedIndices.length == 1) {
                 Backup backup = this.folderBackupManager.getElementAt(selectedIndices[0]);
                 String newName = JOptionPane.showInputDialog(this, "New name", backup.getName());
                 if (newName != null && !newName.isEmpty() && !newName.equals(backup.getName())) {
-                    try {
-                        this.folderBackupManager.renameBackup(selectedIndices[0], newName, () -> {
-                            return JOptionPane.showConfirmDialog(this,
-                                    "A backup with that name already exists.\nDo you want to overwrite it?",
-                                    "Confirm overwrite", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION;
-                        });
-                    } catch (FolderBackupManager.RenameFailedException ex) {
-                        JOptionPane.showMessageDialog(this, ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
-                    }
+                    this.folderBackupManager.renameBackup(selectedIndices[0], newName, () -> {
+                        return JOptionPane.showConfirmDialog(this,
+                                "A backup with that name already exists.\nDo you want to overwrite it?",
+                                "Confirm overwrite", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION;
+                    }).ifPresent(job -> job.whenDone((r, ex) -> this.showJobError("Error", ex)));
                 }
             }
         });
@@ -158,12 +219,14 @@ public class MainFrame extends JFrame {
             int selectedIndices[] = backupList.getSelectedIndices();
             this.deleteBtn.setEnabled(selectedIndices.length != 0);
             this.restoreBtn.setEnabled(selectedIndices.length == 1);
+            this.compareBtn.setEnabled(selectedIndices.length == 1 || selectedIndices.length == 2);
             this.renameBtn.setEnabled(selectedIndices.length == 1);
             this.updateDetailPanel();
         });
         this.backupList.clearSelection();
         this.renameBtn.setEnabled(false);
         this.restoreBtn.setEnabled(false);
+        this.compareBtn.setEnabled(false);
         this.deleteBtn.setEnabled(false);
 
         this.folderBackupManager.addListDataListener(new ListDataListener() {
@@ -183,14 +246,39 @@ public class MainFrame extends JFrame {
         });
     }
 
-    public void createBackup() {
-        try {
-            int idx = this.folderBackupManager.createBackup();
-            if (idx != -1) {
+    /**
+     * @param changedAt Time in milliseconds of the change the backup is made for
+     *                  or -1 if requested manually.
+     */
+    public void createBackup(long changedAt) {
+        this.folderBackupManager.createBackup(changedAt).whenDone((idx, ex) -> {
+            if (idx != null && idx != -1) {
                 this.backupList.setSelectedIndex(idx);
             }
-        } catch (IOException ex) {
-            MainFrame.this.showError("Backup creation failed", ex.getMessage());
+            this.showJobError("Backup creation failed", ex);
+        });
+    }
+
+    private void restoreEntry(BackupEntry entry) {
+        var selectedIndices = this.backupList.getSelectedIndices();
+        if (selectedIndices.length == 1 && JOptionPane.showConfirmDialog(this,
+                "Do you want to restore the following file? The current file is replaced and cannot be brought back.\n"
+                        + entry.name(),
+                "Confirm restore", JOptionPane.YES_NO_OPTION) == JOptionPane.YES_OPTION) {
+            this.folderBackupManager.restoreEntry(selectedIndices[0], entry)
+                    .whenDone((r, ex) -> this.showJobError("File restoration failed", ex));
+        }
+    }
+
+    private void updateJobStatus() {
+        var job = this.folderBackupManager.getCurrentJob();
+        this.jobProgressBar.setVisible(job != null);
+        this.cancelJobBtn.setVisible(job != null);
+        if (job != null) {
+            long total = job.getBytesTotal();
+            this.jobProgressBar.setIndeterminate(total <= 0);
+            this.jobProgressBar.setValue(total <= 0 ? 0 : (int) (1000 * job.getBytesProcessed() / total));
+            this.jobProgressBar.setString(job.getDescription() + "...");
         }
     }
 
@@ -200,6 +288,33 @@ public class MainFrame extends JFrame {
                 selectedIndices.length == 1 ? this.folderBackupManager.getElementAt(selectedIndices[0]) : null);
     }
 
+    /**
+     * Lists the added, removed and changed files of the given diff, if any.
+     */
+    private void showDiff(String title, BackupDiff diff) {
+        if (diff == null) {
+            return;
+        }
+        var text = new StringBuilder();
+        diff.added().forEach(name -> text.append("+ ").append(name).append('\n'));
+        diff.removed().forEach(name -> text.append("- ").append(name).append('\n'));
+        diff.changed().forEach(name -> text.append("* ").append(name).append('\n'));
+        var textArea = new JTextArea(diff.isEmpty() ? "No differences" : text.toString().strip());
+        textArea.setEditable(false);
+        var scrollPane = new JScrollPane(textArea);
+        scrollPane.setPreferredSize(new Dimension(480, 320));
+        JOptionPane.showMessageDialog(this, scrollPane,
+                String.format("%s: %d added, %d removed, %d changed", title, diff.added().size(),
+                        diff.removed().size(), diff.changed().size()),
+                JOptionPane.PLAIN_MESSAGE);
+    }
+
+    private void showJobError(String title, Throwable ex) {
+        if (ex != null && !(ex instanceof CancellationException)) {
+            this.showError(title, ex.getMessage());
+        }
+    }
+
     private void showError(String title, String message) {
         JOptionPane.showMessageDialog(this, message, title, JOptionPane.ERROR_MESSAGE);
     }
@@ -0,0 +1,121 @@
+package dev.nicotopia.ncsgm.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Deletes one of two DEDUP backups sharing chunks and checks that the garbage
+ * collection only deletes the chunks the other one does not refer to.
+ */
+class ChunkStoreGcTest {
+    private static final int FILE_SIZE = 3 * 1024 * 1024;
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void collectGarbageKeepsChunksOfRemainingBackup() throws IOException, InterruptedException, ExecutionException {
+        var savegame = Files.createDirectories(this.folder.resolve("Savegame"));
+        var backups = Files.createDirectories(this.folder.resolve("backups"));
+        var config = new Configuration("ChunkStoreGcTest", savegame, backups, Configuration.Debounce.DEFAULT,
+                BackupFormat.DEDUP, Configuration.Compression.DEFAULT, 0);
+        var random = new Random(0x5EED);
+        var kept = randomBytes(random, FILE_SIZE);
+        var replaced = randomBytes(random, FILE_SIZE);
+        var edited = randomBytes(random, FILE_SIZE);
+        Files.write(savegame.resolve("kept.bin"), kept);
+        Files.write(savegame.resolve("replaced.bin"), replaced);
+        Files.write(Files.createDirectories(savegame.resolve("sub")).resolve("edited.bin"), edited);
+        var manager = new FolderBackupManager(config, Runnable::run);
+        try {
+            var first = manager.getElementAt(manager.createBackup().getFuture().get()).getName();
+
+            // Replace one file completely and only the tail of another, so the
+            // first backup has chunks of its own besides the shared ones.
+            Files.write(savegame.resolve("replaced.bin"), randomBytes(random, FILE_SIZE));
+            var tail = randomBytes(random, 256 * 1024);
+            System.arraycopy(tail, 0, edited, FILE_SIZE - tail.length, tail.length);
+            Files.write(savegame.resolve("sub").resolve("edited.bin"), edited);
+            Files.write(savegame.resolve("added.bin"), randomBytes(random, 100_000));
+            touchAll(savegame, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1));
+            var second = manager.getElementAt(manager.createBackup().getFuture().get()).getName();
+            var expected = hashAll(savegame);
+
+            // Age all chunks beyond the grace period, as if both backups were old.
+            var chunks = backups.resolve(ChunkStore.FOLDER_NAME);
+            touchAll(chunks, System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1));
+            long before = countFiles(chunks);
+            assertTrue(manager.deleteBackup(indexOf(manager, first)).getFuture().get());
+            long after = countFiles(chunks);
+            assertTrue(after < before, "No chunk of the deleted backup was collected.");
+            assertTrue(0 < after, "All chunks were collected.");
+
+            SnapshotRestorer.deleteRecursively(savegame);
+            Files.createDirectories(savegame.resolve("sub"));
+            Files.write(savegame.resolve("sub").resolve("edited.bin"), replaced);
+            Files.write(savegame.resolve("stray.bin"), tail);
+            manager.restoreBackup(indexOf(manager, second), null).getFuture().get();
+            assertEquals(expected, hashAll(savegame));
+        } finally {
+            manager.shutdown();
+        }
+    }
+
+    private static byte[] randomBytes(Random random, int length) {
+        var bytes = new byte[length];
+        random.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static int indexOf(FolderBackupManager manager, String name) {
+        for (int i = 0; i < manager.getSize(); ++i) {
+            if (manager.getElementAt(i).getName().equals(name)) {
+                return i;
+            }
+        }
+        throw new AssertionError("Backup " + name + " is not listed.");
+    }
+
+    private static void touchAll(Path root, long millis) throws IOException {
+        try (var paths = Files.walk(root)) {
+            for (var path : paths.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                Files.setLastModifiedTime(path, FileTime.fromMillis(millis));
+            }
+        }
+    }
+
+    private static long countFiles(Path root) throws IOException {
+        try (var paths = Files.walk(root)) {
+            return paths.filter(Files::isRegularFile).count();
+        }
+    }
+
+    /**
+     * Maps the relative path of every file below root to its SHA-256.
+     */
+    private static Map<String, String> hashAll(Path root) throws IOException {
+        var hashes = new TreeMap<String, String>();
+        try (var paths = Files.walk(root)) {
+            for (var path : paths.filter(Files::isRegularFile).collect(Collectors.toList())) {
+                hashes.put(root.relativize(path).toString(),
+                        HexFormat.of().formatHex(FileIndex.newDigest().digest(Files.readAllBytes(path))));
+            }
+        }
+        return hashes;
+    }
+}
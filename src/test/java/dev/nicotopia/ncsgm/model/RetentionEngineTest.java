@@ -0,0 +1,91 @@
+package dev.nicotopia.ncsgm.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks which backups the retention selects for deletion. The backups are
+ * empty ZIP files of the given sizes, which is all the engine looks at.
+ */
+class RetentionEngineTest {
+    private static final LocalDateTime NOW = LocalDateTime.of(2024, 5, 10, 13, 0);
+    private static final Predicate<Backup> IS_MANAGED = b -> b.getName().startsWith("Save_");
+
+    @TempDir
+    Path folder;
+
+    @Test
+    void maxBytesDeletesOldestUntilWithinBudget() throws IOException {
+        var backups = new ArrayList<Backup>();
+        for (int i = 5; 1 <= i; --i) {
+            backups.add(this.backup(NOW.minusHours(i), 100));
+        }
+        var selected = select(new Configuration.Retention(0, 250, 0, 0, 0), backups, null);
+        assertEquals(backups.subList(0, 3), selected);
+    }
+
+    @Test
+    void maxBytesCountsButKeepsRenamedBackups() throws IOException {
+        var renamed = this.backup("Before the boss", NOW.minusDays(3), 200);
+        var old = this.backup(NOW.minusHours(3), 100);
+        var middle = this.backup(NOW.minusHours(2), 100);
+        var newest = this.backup(NOW.minusHours(1), 100);
+        var selected = select(new Configuration.Retention(0, 350, 0, 0, 0), List.of(renamed, old, middle, newest),
+                null);
+        assertEquals(List.of(old, middle), selected);
+    }
+
+    @Test
+    void bucketsKeepNewestPerHourAndDay() throws IOException {
+        var expired = this.backup(NOW.minusDays(10), 10);
+        var dayOld = this.backup(NOW.minusDays(3).withHour(9), 10);
+        var dayNew = this.backup(NOW.minusDays(3).withHour(18), 10);
+        var otherDay = this.backup(NOW.minusDays(2), 10);
+        var hourOld = this.backup(NOW.minusHours(2).withMinute(10), 10);
+        var hourNew = this.backup(NOW.minusHours(2).withMinute(55), 10);
+        var otherHour = this.backup(NOW.minusHours(5), 10);
+        var recentOld = this.backup(NOW.minusMinutes(50), 10);
+        var recentNew = this.backup(NOW.minusMinutes(10), 10);
+        var backups = List.of(expired, dayOld, dayNew, otherDay, otherHour, hourOld, hourNew, recentOld, recentNew);
+        var selected = select(new Configuration.Retention(0, 0, 1, 1, 7), backups, null);
+        assertEquals(List.of(expired, dayOld, hourOld), selected);
+    }
+
+    @Test
+    void neverSelectsNewestOrActive() throws IOException {
+        var active = this.backup(NOW.minusDays(30), 100);
+        var other = this.backup(NOW.minusDays(20), 100);
+        var newest = this.backup(NOW.minusDays(10), 100);
+        var backups = List.of(active, other, newest);
+        assertEquals(List.of(other), select(new Configuration.Retention(0, 1, 0, 0, 0), backups, active));
+        assertEquals(List.of(other), select(new Configuration.Retention(1, 0, 0, 0, 0), backups, active));
+        assertEquals(List.of(other), select(new Configuration.Retention(0, 0, 0, 0, 1), backups, active));
+    }
+
+    private static List<Backup> select(Configuration.Retention retention, List<Backup> backups, Backup active)
+            throws IOException {
+        return new RetentionEngine(retention).select(backups, IS_MANAGED, active, NOW);
+    }
+
+    private Backup backup(LocalDateTime time, int size) throws IOException {
+        var timestamp = FolderBackupManager.TIMESTAMP_FORMATTER.format(time);
+        return this.backup("Save_" + timestamp, time, size);
+    }
+
+    private Backup backup(String name, LocalDateTime time, int size) throws IOException {
+        var timestamp = FolderBackupManager.TIMESTAMP_FORMATTER.format(time);
+        var backup = Backup.createNew(this.folder, name, timestamp, BackupFormat.ZIP).orElseThrow();
+        Files.write(backup.getFile().toPath(), new byte[size]);
+        return backup;
+    }
+}
@@ -0,0 +1,89 @@
+package dev.nicotopia.ncsgm.model;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Backs up and restores a generated 1 GiB tree in a JVM with a 32 MiB heap,
+ * which runs out of memory if a file is read into memory as a whole. Tagged
+ * slow and thus only run with the slow-tests profile.
+ */
+@Tag("slow")
+class StreamingHeapTest {
+    private static final int FILE_COUNT = 4;
+    private static final long FILE_SIZE = 256L * 1024 * 1024;
+    private static final String MAX_HEAP = "-Xmx32m";
+
+    @Test
+    void backupAndRestoreKeepHeapBounded(@TempDir Path folder) throws IOException, InterruptedException {
+        var savegame = Files.createDirectories(folder.resolve("Savegame"));
+        var buffer = new byte[64 * 1024];
+        var random = new Random(0x5EED);
+        var hashes = new String[FILE_COUNT];
+        for (int i = 0; i < FILE_COUNT; ++i) {
+            var digest = FileIndex.newDigest();
+            try (var os = Files.newOutputStream(savegame.resolve("data_" + i + ".bin"))) {
+                for (long written = 0; written < FILE_SIZE; written += buffer.length) {
+                    // Random letters, so the data compresses but is no run of equal bytes.
+                    for (int j = 0; j < buffer.length; ++j) {
+                        buffer[j] = (byte) ('a' + random.nextInt(16));
+                    }
+                    os.write(buffer);
+                    digest.update(buffer);
+                }
+            }
+            hashes[i] = HexFormat.of().formatHex(digest.digest());
+        }
+        var java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        var process = new ProcessBuilder(java, MAX_HEAP, "-cp", System.getProperty("java.class.path"),
+                StreamingHeapTest.class.getName(), folder.toString()).inheritIO().start();
+        assertTrue(process.waitFor(10, TimeUnit.MINUTES), "Backup and restore did not finish in time.");
+        assertEquals(0, process.exitValue(), "Backup or restore failed with " + MAX_HEAP + ".");
+        for (int i = 0; i < FILE_COUNT; ++i) {
+            var file = savegame.resolve("data_" + i + ".bin");
+            assertEquals(FILE_SIZE, Files.size(file));
+            assertEquals(hashes[i], hash(file, buffer), "Restored contents of " + file.getFileName() + " differ.");
+        }
+    }
+
+    private static String hash(Path file, byte[] buffer) throws IOException {
+        var digest = FileIndex.newDigest();
+        try (var is = Files.newInputStream(file)) {
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Run in the JVM with the small heap. Backs up the tree in the given folder,
+     * deletes it and restores it from the backup.
+     */
+    public static void main(String[] args) throws Exception {
+        var folder = Path.of(args[0]);
+        var config = new Configuration("StreamingHeapTest", folder.resolve("Savegame"),
+                Files.createDirectories(folder.resolve("backups")));
+        var manager = new FolderBackupManager(config, Runnable::run);
+        try {
+            manager.createBackup().getFuture().get();
+            SnapshotRestorer.deleteRecursively(config.pathToWatch());
+            Files.createDirectory(config.pathToWatch());
+            manager.restoreBackup(0, null).getFuture().get();
+        } finally {
+            manager.shutdown();
+        }
+    }
+}